@@ -0,0 +1,72 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.open_ortho.dcm4ceph.core.BBCephalogramSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * DICOMDIR creation for a lateral, frontal and fiducial set.
+ * <p>
+ * The three objects are written once during setup, the benchmark measures
+ * {@link BBCephalogramSet#writeDicomdir(File)} only.
+ *
+ * @author afm
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BBCephalogramSetBenchmark {
+
+    private BBCephalogramSet set;
+
+    private File rootdir;
+
+    @Setup
+    public void setup() throws IOException {
+        File input = SampleData.createTempDirectory();
+        File lateral = SampleData.copyTo(SampleData.LATERAL, input);
+        File frontal = SampleData.copyTo(SampleData.FRONTAL, input);
+        File fiducials = new File(input, "fiducials.properties");
+        try (OutputStream out = new FileOutputStream(fiducials)) {
+            SampleData.getFiducialProperties().store(out, null);
+        }
+
+        set = new BBCephalogramSet(lateral, frontal, fiducials);
+        rootdir = new File(input, "BBcephset");
+        set.writeCephs(rootdir);
+    }
+
+    @Benchmark
+    public File writeDicomdir() {
+        set.writeDicomdir(rootdir);
+        return rootdir;
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler attached.
+ * <p>
+ * Accepts the usual JMH command line options, for example
+ *
+ * <pre>
+ * java -jar dcm4ceph-bench/target/benchmarks.jar ImageInfo -f 1
+ * </pre>
+ *
+ * Next to the throughput, every benchmark then reports its allocation rate
+ * ({@code gc.alloc.rate.norm} is the number of bytes allocated per
+ * operation).
+ *
+ * @author afm
+ *
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException,
+            CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.open_ortho.dcm4ceph.core.Cephalogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Preparation and writing of a {@link Cephalogram} from the sample data.
+ * <p>
+ * {@link #writeDCMToChannel()} writes to a channel that drops the bytes, so
+ * that it measures the preparation and encoding of the object without the
+ * cost of the disk.
+ *
+ * @author afm
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CephalogramBenchmark {
+
+    @Param({ SampleData.LATERAL, SampleData.FRONTAL })
+    public String sample;
+
+    /**
+     * Whether the cephalograms are built from the shared header template.
+     */
+    @Param({ "false", "true" })
+    public boolean headerTemplate;
+
+    private File image;
+
+    private File out;
+
+    private final WritableByteChannel sink = new WritableByteChannel() {
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    };
+
+    @Setup
+    public void setup() throws IOException {
+        Cephalogram.setHeaderTemplateEnabled(headerTemplate);
+        image = SampleData.getImage(sample);
+        out = new File(SampleData.createTempDirectory(), sample + ".dcm");
+        out.deleteOnExit();
+    }
+
+    @Benchmark
+    public Cephalogram writeDCMToChannel() throws IOException {
+        Cephalogram ceph = new Cephalogram(image);
+        ceph.writeDCM(sink);
+        return ceph;
+    }
+
+    @Benchmark
+    public File writeDCM() throws IOException {
+        return new Cephalogram(image).writeDCM(out);
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.open_ortho.dcm4ceph.core.FiducialSolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Solving the fiducial corners of a whole cohort.
+ *
+ * @author afm
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FiducialSolverBenchmark {
+
+    @Param({ "100000" })
+    public int sets;
+
+    private float[] distances;
+
+    private float[] coordinates;
+
+    private float[] residuals;
+
+    @Setup
+    public void setup() {
+        // The Bolton-Brush template in pixels at 300 dpi, with measurement
+        // noise.
+        float[] template = { 3209, 3591, 3059, 3579, 4807, 4713 };
+        Random random = new Random(42);
+        distances = new float[sets * FiducialSolver.DISTANCES];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = template[i % FiducialSolver.DISTANCES]
+                    + (float) random.nextGaussian() * 3;
+        }
+        coordinates = new float[sets * FiducialSolver.COORDINATES];
+        residuals = new float[sets];
+    }
+
+    @Benchmark
+    public float[] solve() {
+        FiducialSolver.solve(distances, coordinates, residuals, 0, sets);
+        return coordinates;
+    }
+
+    @Benchmark
+    public float[] solveParallel() {
+        FiducialSolver.solveParallel(distances, coordinates, residuals);
+        return coordinates;
+    }
+}
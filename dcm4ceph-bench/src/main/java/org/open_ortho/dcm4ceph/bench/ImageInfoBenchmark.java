@@ -0,0 +1,91 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.bench;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import org.devlib.schmidt.imageinfo.ImageInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ImageInfo#check()} on the sample JPEGs, reading through a stream and
+ * through a mapped buffer.
+ *
+ * @author afm
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageInfoBenchmark {
+
+    @Param({ SampleData.LATERAL, SampleData.FRONTAL })
+    public String sample;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer mapped;
+
+    @Setup
+    public void open() throws IOException {
+        channel = FileChannel.open(SampleData.getImage(sample).toPath(),
+                StandardOpenOption.READ);
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Benchmark
+    public int checkStream() throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(
+                SampleData.getImage(sample)))) {
+            ImageInfo ii = new ImageInfo();
+            ii.setInput(in);
+            ii.setCollectComments(true);
+            ii.check();
+            return ii.getWidth();
+        }
+    }
+
+    @Benchmark
+    public int checkMappedBuffer() {
+        ImageInfo ii = new ImageInfo();
+        mapped.rewind();
+        ii.setInput(mapped);
+        ii.setCollectComments(true);
+        ii.check();
+        return ii.getWidth();
+    }
+}
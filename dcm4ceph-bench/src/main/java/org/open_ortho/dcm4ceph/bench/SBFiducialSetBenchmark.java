@@ -0,0 +1,61 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.dcm4che2.util.UIDUtils;
+import org.open_ortho.dcm4ceph.core.SBFiducialSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creation and writing of a Bolton-Brush fiducial set.
+ *
+ * @author afm
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SBFiducialSetBenchmark {
+
+    private String[] uids;
+
+    private File out;
+
+    @Setup
+    public void setup() throws IOException {
+        uids = new String[] { UIDUtils.createUID(), UIDUtils.createUID() };
+        out = new File(SampleData.createTempDirectory(), "fiducials.dcm");
+        out.deleteOnExit();
+    }
+
+    @Benchmark
+    public File writeDCM() {
+        SBFiducialSet fids = new SBFiducialSet(uids,
+                SampleData.getFiducialProperties());
+        return fids.writeDCM(out);
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Locates the sample cephalograms the benchmarks run on.
+ * <p>
+ * The directory defaults to {@code dcm4ceph-sampledata}, relative to the
+ * working directory, and can be changed with the
+ * {@code dcm4ceph.sampledata} system property.
+ *
+ * @author afm
+ *
+ */
+public class SampleData {
+
+    public static final String LATERAL = "B1893L12";
+
+    public static final String FRONTAL = "B1893F12";
+
+    public static File getDirectory() {
+        File dir = new File(System.getProperty("dcm4ceph.sampledata",
+                "dcm4ceph-sampledata"));
+        if (!dir.isDirectory()) {
+            throw new IllegalStateException("Sample data not found in "
+                    + dir.getAbsolutePath()
+                    + ". Run from the project root or set -Ddcm4ceph.sampledata.");
+        }
+        return dir;
+    }
+
+    /**
+     * @param name base name of the sample, without extension
+     * @return the JPEG image of the sample
+     */
+    public static File getImage(String name) {
+        return new File(getDirectory(), name + ".jpg");
+    }
+
+    /**
+     * Copy a sample image and its .properties file into a directory.
+     *
+     * @param name base name of the sample, without extension
+     * @param dir the directory to copy to
+     * @return the copied image
+     */
+    public static File copyTo(String name, File dir) throws IOException {
+        for (String ext : new String[] { ".jpg", ".properties" }) {
+            Files.copy(new File(getDirectory(), name + ext).toPath(), new File(
+                    dir, name + ext).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        return new File(dir, name + ".jpg");
+    }
+
+    /**
+     * The Bolton-Brush template distances, as in the defaultfid.properties
+     * of the tool.
+     *
+     * @return fiducial set properties
+     */
+    public static Properties getFiducialProperties() {
+        Properties p = new Properties();
+        p.setProperty("label", "BB1");
+        p.setProperty("descriptor", "Bolton Brush Template");
+        p.setProperty("number", "1");
+        p.setProperty("dpi", "300");
+        p.setProperty("d12", "271.7");
+        p.setProperty("d23", "304.0");
+        p.setProperty("d34", "259.0");
+        p.setProperty("d14", "303.0");
+        p.setProperty("d24", "399.0");
+        p.setProperty("d13", "407.0");
+        return p;
+    }
+
+    /**
+     * @return a new temporary directory, deleted on exit if empty
+     */
+    public static File createTempDirectory() throws IOException {
+        File dir = Files.createTempDirectory("dcm4ceph-bench").toFile();
+        dir.deleteOnExit();
+        return dir;
+    }
+}
@@ -14,10 +14,12 @@
 package org.devlib.schmidt.imageinfo;
 
 import java.io.DataInput;
+import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.Vector;
 
 /**
@@ -242,6 +244,7 @@ public class ImageInfo {
 	private int format;
 	private InputStream in;
 	private DataInput din;
+	private ByteBuffer buffer;
 	private boolean collectComments = true;
 	private Vector comments;
 	private boolean determineNumberOfImages;
@@ -286,7 +289,7 @@ public class ImageInfo {
 			}
 			else
 			if (b1 == 0xff && b2 == 0xd8) {
-				return checkJpeg();
+				return buffer != null ? checkJpeg(buffer) : checkJpeg();
 			}
 			else
 			if (b1 == 0x42 && b2 == 0x4d) {
@@ -573,6 +576,81 @@ public class ImageInfo {
 		}
 	}
 
+	/**
+	 * Same as {@link #checkJpeg()}, but walks the markers of a buffer with
+	 * absolute gets. Nothing is allocated per marker, only collected comments
+	 * need their own storage.
+	 */
+	private boolean checkJpeg(ByteBuffer buf) throws IOException {
+		final int limit = buf.limit();
+		int pos = buf.position();
+		try {
+			while (pos + 4 <= limit) {
+				int marker = getShortBigEndian(buf, pos);
+				int size = getShortBigEndian(buf, pos + 2);
+				if ((marker & 0xff00) != 0xff00) {
+					return false; // not a valid marker
+				}
+				int data = pos + 4;
+				if (marker == 0xffe0) { // APPx
+					if (size < 14) {
+						return false; // APPx header must be >= 14 bytes
+					}
+					if (data + 12 > limit) {
+						return false;
+					}
+					if (buf.get(data) == 0x4a && buf.get(data + 1) == 0x46
+							&& buf.get(data + 2) == 0x49 && buf.get(data + 3) == 0x46
+							&& buf.get(data + 4) == 0x00) {
+						if (buf.get(data + 7) == 1) {
+							setPhysicalWidthDpi(getShortBigEndian(buf, data + 8));
+							setPhysicalHeightDpi(getShortBigEndian(buf, data + 10));
+						}
+						else
+						if (buf.get(data + 7) == 2) {
+							int x = getShortBigEndian(buf, data + 8);
+							int y = getShortBigEndian(buf, data + 10);
+							setPhysicalWidthDpi((int)(x * 2.54f));
+							setPhysicalHeightDpi((int)(y * 2.54f));
+						}
+					}
+				}
+				else
+				if (collectComments && size > 2 && marker == 0xfffe) { // comment
+					if (data + size - 2 > limit) {
+						return false;
+					}
+					byte[] chars = new byte[size - 2];
+					for (int i = 0; i < chars.length; i++) {
+						chars[i] = buf.get(data + i);
+					}
+					String comment = new String(chars, "iso-8859-1");
+					comment = comment.trim();
+					addComment(comment);
+				}
+				else
+				if (marker >= 0xffc0 && marker <= 0xffcf && marker != 0xffc4 && marker != 0xffc8) {
+					if (data + 6 > limit) {
+						return false;
+					}
+					format = FORMAT_JPEG;
+					bitsPerPixel = (buf.get(data) & 0xff) * (buf.get(data + 5) & 0xff);
+					progressive = marker == 0xffc2 || marker == 0xffc6 ||
+						marker == 0xffca || marker == 0xffce;
+					width = getShortBigEndian(buf, data + 3);
+					height = getShortBigEndian(buf, data + 1);
+					pos = data + 6;
+					return true;
+				}
+				// the segment length includes its own two bytes, not the marker
+				pos += 2 + size;
+			}
+			return false;
+		} finally {
+			buf.position(Math.min(pos, limit));
+		}
+	}
+
 	private boolean checkPcx() throws IOException {
 		byte[] a = new byte[64];
 		if (read(a) != a.length) {
@@ -949,6 +1027,12 @@ public class ImageInfo {
 			(a[offs + 1] & 0xff);
 	}
 
+	private static int getShortBigEndian(ByteBuffer buf, int offs) {
+		return
+			(buf.get(offs) & 0xff) << 8 |
+			(buf.get(offs + 1) & 0xff);
+	}
+
 	private static int getShortLittleEndian(byte[] a, int offs) {
 		return (a[offs] & 0xff) | (a[offs + 1] & 0xff) << 8;
 	}
@@ -1086,6 +1170,9 @@ public class ImageInfo {
 	}
 
 	private int read() throws IOException {
+		if (buffer != null) {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
 		if (in != null) {
 			return in.read();
 		} else {
@@ -1094,6 +1181,9 @@ public class ImageInfo {
 	}
 
 	private int read(byte[] a) throws IOException {
+		if (buffer != null) {
+			return read(a, 0, a.length);
+		}
 		if (in != null) {
 			return in.read(a);
 		} else {
@@ -1103,6 +1193,14 @@ public class ImageInfo {
 	}
 
 	private int read(byte[] a, int offset, int num) throws IOException {
+		if (buffer != null) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			num = Math.min(num, buffer.remaining());
+			buffer.get(a, offset, num);
+			return num;
+		}
 		if (in != null) {
 			return in.read(a, offset, num);
 		} else {
@@ -1253,6 +1351,22 @@ public class ImageInfo {
 	public void setInput(DataInput dataInput) {
 		din = dataInput;
 		in = null;
+		buffer = null;
+	}
+
+	/**
+	 * Set the input to the content of a buffer, starting at its current
+	 * position. Typically the buffer is a window on the start of the file,
+	 * which may end long before the file does; JPEG markers are walked with
+	 * absolute gets, and {@link #check()} fails if the buffer ends before
+	 * the information it looks for.
+	 * The byte order of the buffer does not matter.
+	 * @param byteBuffer the buffer to read from
+	 */
+	public void setInput(ByteBuffer byteBuffer) {
+		buffer = byteBuffer;
+		in = null;
+		din = null;
 	}
 
 	/**
@@ -1262,6 +1376,7 @@ public class ImageInfo {
 	public void setInput(InputStream inputStream) {
 		in = inputStream;
 		din = null;
+		buffer = null;
 	}
 
 	private void setPhysicalHeightDpi(int newValue) {
@@ -1273,6 +1388,16 @@ public class ImageInfo {
 	}
 
 	private void skip(int num) throws IOException {
+		if (buffer != null) {
+			if (num <= 0) {
+				return;
+			}
+			if (num > buffer.remaining()) {
+				throw new EOFException();
+			}
+			buffer.position(buffer.position() + num);
+			return;
+		}
 		while (num > 0) {
 			long result;
 			if (in != null) {
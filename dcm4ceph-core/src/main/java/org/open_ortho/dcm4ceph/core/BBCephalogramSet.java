@@ -10,21 +10,16 @@
 package org.open_ortho.dcm4ceph.core;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import org.dcm4che2.data.DicomObject;
-import org.dcm4che2.data.Tag;
-import org.dcm4che2.io.DicomInputStream;
-import org.dcm4che2.io.StopTagInputHandler;
-import org.dcm4che2.media.ApplicationProfile;
-import org.dcm4che2.media.BasicApplicationProfile;
-import org.dcm4che2.media.DicomDirReader;
-import org.dcm4che2.media.DicomDirWriter;
-import org.dcm4che2.media.FileSetInformation;
-import org.dcm4che2.util.UIDUtils;
+import org.open_ortho.dcm4ceph.util.DcmUtils;
+import org.open_ortho.dcm4ceph.util.FileUtils;
 
 /**
  * This class represents a set of lateral and frontal cephalograms.
@@ -39,10 +34,6 @@ import org.dcm4che2.util.UIDUtils;
  *
  */
 public class BBCephalogramSet {
-    private DicomDirReader dicomdir;
-
-    private ApplicationProfile ap = new BasicApplicationProfile();
-
     private Cephalogram ceph1, ceph2;
 
     private File ceph1File, ceph2File, fidsFile;
@@ -67,7 +58,7 @@ public class BBCephalogramSet {
      * @param fiducialFile
      *            Fiducial distance information
      */
-    public BBCephalogramSet(File ceph1File, File ceph2File, File fiducialFile) throws FileNotFoundException {
+    public BBCephalogramSet(File ceph1File, File ceph2File, File fiducialFile) throws IOException {
         ceph1 = new Cephalogram(ceph1File);
         ceph2 = new Cephalogram(ceph2File);
 
@@ -113,22 +104,36 @@ public class BBCephalogramSet {
      *
      * @param argList args
      */
-    public BBCephalogramSet(List argList) throws FileNotFoundException {
+    public BBCephalogramSet(List argList) throws IOException {
         this(new File((String) argList.get(0)), new File((String) argList
                 .get(1)), new File((String) argList.get(2)));
     }
 
+    /**
+     * Put the set in a study of its own, with a series for each object.
+     * <p>
+     * With a deterministic {@link org.open_ortho.dcm4ceph.util.UIDStrategy},
+     * the UIDs of the set are derived from the SOP Instance UIDs of the two
+     * cephalograms, so the same images give the same set.
+     */
     void init() {
-        StudyUID = UIDUtils.createUID();
+        String uid1 = ceph1.getUID();
+        String uid2 = ceph2.getUID();
+        StudyUID = DcmUtils.createUID("set", uid1, uid2);
 
         ceph1.setStudyUID(StudyUID);
-        ceph1.setSeriesUID(UIDUtils.createUID());
+        ceph1.setSeriesUID(DcmUtils.createUID("series", StudyUID, uid1));
 
         ceph2.setStudyUID(StudyUID);
-        ceph2.setSeriesUID(UIDUtils.createUID());
+        ceph2.setSeriesUID(DcmUtils.createUID("series", StudyUID, uid2));
 
         sbFiducialSet.setStudyUID(StudyUID);
-        sbFiducialSet.setSeriesUID(UIDUtils.createUID());
+        sbFiducialSet.setSeriesUID(DcmUtils.createUID("series", StudyUID,
+                "fiducials"));
+        if (DcmUtils.getUIDStrategy().isDeterministic()) {
+            sbFiducialSet.getSopCommonModule().setSOPInstanceUID(
+                    DcmUtils.createUID("fiducials", uid1, uid2));
+        }
     }
 
     public void setFiducialSetProperties(Properties fidsetprops) {
@@ -182,6 +187,10 @@ public class BBCephalogramSet {
 
     /**
      * Write out this cephalogram set to a directory.
+     * <p>
+     * The two cephalograms and the fiducial set are written in their own
+     * subdirectories, then the DICOMDIR is created from the objects in
+     * memory.
      *
      * @param rootdir directory File reference
      */
@@ -193,35 +202,102 @@ public class BBCephalogramSet {
         ceph2dir.mkdirs();
         fiducialdir.mkdirs();
 
-        FileSetInformation fsinfo = new FileSetInformation();
-        fsinfo.init();
         try {
-            dicomdir = new DicomDirWriter(new File(rootdir.getAbsolutePath()
-                    + File.separator + "DICOMDIR"), fsinfo);
-
             ceph1File = ceph1.writeDCM(ceph1dir.getAbsolutePath(), null);
             ceph2File = ceph2.writeDCM(ceph2dir.getAbsolutePath(), null);
             fidsFile = sbFiducialSet.writeDCM(fiducialdir.getAbsolutePath(),
                     null);
-
-            dicomdir.close();
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
+            return;
+        }
+        writeDicomdir(rootdir);
+    }
+
+    /**
+     * Write out this cephalogram set to a directory, in the background.
+     * <p>
+     * The two cephalograms and the fiducial set are independent files, so
+     * they are written at the same time, each as a task of the executor. The
+     * DICOMDIR is created, also on the executor, as soon as all three are
+     * written.
+     * <p>
+     * The set must not be changed until the returned future completes.
+     *
+     * @param rootdir
+     *            directory File reference
+     * @param executor
+     *            Runs the writes. It needs up to three threads to write the
+     *            objects in parallel.
+     * @return the DICOMDIR file. If writing fails, the future completes
+     *         exceptionally with the {@link IOException}, and the DICOMDIR is
+     *         not created.
+     */
+    public CompletableFuture<File> writeCephsAsync(File rootdir,
+            Executor executor) {
+        File ceph1dir = new File(rootdir, "ceph1");
+        File ceph2dir = new File(rootdir, "ceph2");
+        File fiducialdir = new File(rootdir, "fiducials");
+        ceph1dir.mkdirs();
+        ceph2dir.mkdirs();
+        fiducialdir.mkdirs();
+
+        CompletableFuture<File> ceph1Written = CompletableFuture.supplyAsync(
+                () -> writeDCM(ceph1, ceph1dir), executor);
+        CompletableFuture<File> ceph2Written = CompletableFuture.supplyAsync(
+                () -> writeDCM(ceph2, ceph2dir), executor);
+        CompletableFuture<File> fidsWritten = CompletableFuture.supplyAsync(
+                () -> writeDCM(sbFiducialSet, fiducialdir), executor);
+        return CompletableFuture.allOf(ceph1Written, ceph2Written, fidsWritten)
+                .thenApplyAsync(v -> {
+                    ceph1File = ceph1Written.join();
+                    ceph2File = ceph2Written.join();
+                    fidsFile = fidsWritten.join();
+                    try {
+                        return buildDicomdir(rootdir);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor);
+    }
+
+    private static File writeDCM(Cephalogram ceph, File dir) {
+        try {
+            File file = ceph.writeDCM(dir.getAbsolutePath(), null);
+            if (file == null) {
+                throw new ConversionException(ceph.getImageFile(),
+                        "cephalogram was not written");
+            }
+            return file;
+        } catch (IOException e) {
+            throw new CompletionException(e);
         }
+    }
 
+    private static File writeDCM(SBFiducialSet fids, File dir) {
+        // The variant that reports failures rather than printing them.
+        File file = new File(dir, FileUtils.getDCMFileName(fids
+                .getPropertiesFile()));
+        try {
+            return fids.writeDCM(file, null).getOutput();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
     }
 
+    /**
+     * Write the DICOMDIR of this set.
+     * <p>
+     * The directory records are made from the {@link DicomObject}s held by the
+     * cephalograms and the fiducial set, so the files written by
+     * {@link #writeCephs(File)} are not read back.
+     *
+     * @param rootdir directory File reference
+     */
     public void writeDicomdir(File rootdir) {
-        FileSetInformation fsinfo = new FileSetInformation();
-        fsinfo.init();
         try {
-            dicomdir = new DicomDirWriter(new File(rootdir.getAbsolutePath()
-                    + File.separator + "DICOMDIR"), fsinfo);
-            addFile(ceph1File);
-            addFile(ceph2File);
-            addFile(fidsFile);
-            dicomdir.close();
+            buildDicomdir(rootdir);
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -229,32 +305,34 @@ public class BBCephalogramSet {
 
     }
 
-    private int addFile(File f) throws IOException {
-        if (f.isDirectory()) {
-            int n = 0;
-            File[] fs = f.listFiles();
-            for (int i = 0; i < fs.length; i++) {
-                n += addFile(fs[i]);
-            }
-            return n;
+    private File buildDicomdir(File rootdir) throws IOException {
+        File file = new File(rootdir.getAbsolutePath() + File.separator
+                + "DICOMDIR");
+        try (DicomDirBuilder dicomdir = new DicomDirBuilder(file)) {
+            addRecords(dicomdir, ceph1.getDicomObject(), ceph1File);
+            addRecords(dicomdir, ceph2.getDicomObject(), ceph2File);
+            addRecords(dicomdir, sbFiducialSet.getDicomObject(), fidsFile);
         }
+        return file;
+    }
 
-        DicomInputStream in = new DicomInputStream(f);
-        in.setHandler(new StopTagInputHandler(Tag.PixelData));
-        DicomObject dcmobj = in.readDicomObject();
-        in.close();
-        DicomObject patrec = ap.makePatientDirectoryRecord(dcmobj);
-        DicomObject styrec = ap.makeStudyDirectoryRecord(dcmobj);
-        DicomObject serrec = ap.makeSeriesDirectoryRecord(dcmobj);
-        DicomObject instrec = ap.makeInstanceDirectoryRecord(dcmobj, dicomdir
-                .toFileID(f));
-
-        DicomObject rec = ((DicomDirWriter) dicomdir).addPatientRecord(patrec);
-        rec = ((DicomDirWriter) dicomdir).addStudyRecord(rec, styrec);
-        rec = ((DicomDirWriter) dicomdir).addSeriesRecord(rec, serrec);
-        ((DicomDirWriter) dicomdir).addChildRecord(rec, instrec);
+    /**
+     * Add the patient, study, series and instance records of an object.
+     *
+     * @param dcmobj
+     *            The object as it was written, including its file meta
+     *            information.
+     * @param f
+     *            The file the object was written to, or {@code null} if it
+     *            was not written.
+     */
+    private void addRecords(DicomDirBuilder dicomdir, DicomObject dcmobj,
+            File f) throws IOException {
+        if (f == null) {
+            return;
+        }
+        dicomdir.add(dcmobj, f);
         System.out.print('.');
-        return 1;
     }
 
     public void writeCeph1Dcm() throws IOException {
@@ -0,0 +1,286 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.core;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.ElementDictionary;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.data.VR;
+import org.open_ortho.dcm4ceph.util.FileUtils;
+import org.open_ortho.dcm4ceph.util.Log;
+
+/**
+ * Maps the keys of a cephalogram .properties file to DICOM attributes.
+ * <p>
+ * Each mapping is a property key, the tag and VR of the attribute it fills,
+ * and a {@link Parser} for the value. The table is compiled once and then
+ * applied to every cephalogram with a single pass over an array.
+ * <p>
+ * Sites can add mappings without code changes, in a
+ * {@code ceph_mappings.properties} file on the class path or in the file
+ * named by the {@code dcm4ceph.mappings} system property. Each line reads
+ *
+ * <pre>
+ * propertyKey = Tag, VR[, parser]
+ * </pre>
+ *
+ * where Tag is a keyword such as {@code Manufacturer} or eight hex digits
+ * such as {@code 00080070}, and parser is {@code STRING} (default) or
+ * {@code DATE}. A site mapping replaces a built-in mapping of the same key.
+ * <p>
+ * Attributes that depend on several keys, or that set more than one
+ * attribute, such as Study Date and Time, the patient orientation, distances
+ * and the cephalogram type, are handled by {@link Cephalogram} itself.
+ *
+ * @author afm
+ *
+ */
+public class CephPropertyMapping {
+
+    /**
+     * Properties resource with site specific mappings.
+     */
+    public static final String MAPPINGS_RESOURCE = "ceph_mappings.properties";
+
+    /**
+     * System property naming a file with site specific mappings.
+     */
+    public static final String MAPPINGS_PROPERTY = "dcm4ceph.mappings";
+
+    /**
+     * Dates in .properties files, as in 1931-07-08.
+     */
+    static final DateTimeFormatter PROPERTY_DATE = DateTimeFormatter.ISO_LOCAL_DATE;
+
+    /**
+     * Times in .properties files, as in 12:00 or 12:00:30.
+     */
+    static final DateTimeFormatter PROPERTY_TIME = DateTimeFormatter
+            .ofPattern("H:mm[:ss]");
+
+    /**
+     * DICOM DA value representation.
+     */
+    static final DateTimeFormatter DICOM_DATE = DateTimeFormatter.BASIC_ISO_DATE;
+
+    /**
+     * DICOM TM value representation.
+     */
+    static final DateTimeFormatter DICOM_TIME = DateTimeFormatter
+            .ofPattern("HHmmss");
+
+    /**
+     * How the value of a property is turned into an attribute value.
+     */
+    public enum Parser {
+        /**
+         * The value is used as is.
+         */
+        STRING {
+            String parse(String value) {
+                return value;
+            }
+        },
+        /**
+         * A yyyy-MM-dd date, stored as a DICOM date.
+         */
+        DATE {
+            String parse(String value) {
+                return LocalDate.parse(value, PROPERTY_DATE).format(DICOM_DATE);
+            }
+        };
+
+        abstract String parse(String value);
+    }
+
+    private static final class Mapping {
+        final String key;
+        final int tag;
+        final VR vr;
+        final Parser parser;
+
+        Mapping(String key, int tag, VR vr, Parser parser) {
+            this.key = key;
+            this.tag = tag;
+            this.vr = vr;
+            this.parser = parser;
+        }
+    }
+
+    private static class DefaultHolder {
+        static final CephPropertyMapping DEFAULT_INSTANCE = load();
+    }
+
+    private final Mapping[] mappings;
+
+    private CephPropertyMapping(List<Mapping> mappings) {
+        this.mappings = mappings.toArray(new Mapping[mappings.size()]);
+    }
+
+    /**
+     * The built-in mappings, followed by the site mappings.
+     * <p>
+     * The table is compiled the first time it is needed, and then shared
+     * without locking.
+     *
+     * @return the shared mapping table
+     */
+    public static CephPropertyMapping getDefault() {
+        return DefaultHolder.DEFAULT_INSTANCE;
+    }
+
+    private static CephPropertyMapping load() {
+        Properties site = FileUtils.loadProperties(MAPPINGS_RESOURCE);
+        String siteFile = System.getProperty(MAPPINGS_PROPERTY);
+        if (siteFile != null) {
+            Properties file = FileUtils.loadProperties(new File(siteFile));
+            if (file == null) {
+                Log.warn("Could not read mappings from " + siteFile);
+            } else {
+                Properties both = new Properties();
+                if (site != null) {
+                    both.putAll(site);
+                }
+                both.putAll(file);
+                site = both;
+            }
+        }
+        return compile(site);
+    }
+
+    /**
+     * Compile the built-in mappings, followed by site mappings.
+     * <p>
+     * Site mappings that cannot be parsed, such as those naming an unknown
+     * attribute, are logged with their key and left out.
+     *
+     * @param site
+     *            Mappings in the format of {@link #MAPPINGS_RESOURCE}, or
+     *            {@code null}.
+     */
+    static CephPropertyMapping compile(Properties site) {
+        List<Mapping> list = new ArrayList<Mapping>();
+        add(list, "patientName", Tag.PatientName, VR.PN, Parser.STRING);
+        add(list, "patientID", Tag.PatientID, VR.LO, Parser.STRING);
+        add(list, "patientDOB", Tag.PatientBirthDate, VR.DA, Parser.DATE);
+        add(list, "ethnicGroup", Tag.EthnicGroup, VR.SH, Parser.STRING);
+        add(list, "patientAge", Tag.PatientAge, VR.AS, Parser.STRING);
+        add(list, "patientSex", Tag.PatientSex, VR.CS, Parser.STRING);
+        add(list, "referringPhysician", Tag.ReferringPhysicianName, VR.PN,
+                Parser.STRING);
+        add(list, "studyID", Tag.StudyID, VR.SH, Parser.STRING);
+        add(list, "accessionNumber", Tag.AccessionNumber, VR.SH,
+                Parser.STRING);
+        add(list, "seriesNumber", Tag.SeriesNumber, VR.IS, Parser.STRING);
+        add(list, "instanceNumber", Tag.InstanceNumber, VR.IS, Parser.STRING);
+        if (site != null) {
+            addAll(list, site);
+        }
+        return new CephPropertyMapping(list);
+    }
+
+    private static void add(List<Mapping> list, String key, int tag, VR vr,
+            Parser parser) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).key.equals(key)) {
+                list.set(i, new Mapping(key, tag, vr, parser));
+                return;
+            }
+        }
+        list.add(new Mapping(key, tag, vr, parser));
+    }
+
+    private static void addAll(List<Mapping> list, Properties site) {
+        for (Map.Entry<Object, Object> e : site.entrySet()) {
+            String key = ((String) e.getKey()).trim();
+            String[] spec = ((String) e.getValue()).split(",");
+            try {
+                if (spec.length < 2 || spec.length > 3) {
+                    throw new IllegalArgumentException(
+                            "expected Tag, VR[, parser]");
+                }
+                int tag = toTag(spec[0].trim());
+                String vr = spec[1].trim();
+                if (vr.length() != 2) {
+                    throw new IllegalArgumentException("invalid VR " + vr);
+                }
+                Parser parser = spec.length == 3 ? Parser.valueOf(spec[2]
+                        .trim().toUpperCase()) : Parser.STRING;
+                add(list, key, tag, VR.valueOf(vr.charAt(0) << 8
+                        | vr.charAt(1)), parser);
+            } catch (IllegalArgumentException ex) {
+                Log.warn("Ignoring mapping " + key + "=" + e.getValue() + ": "
+                        + ex.getMessage());
+            }
+        }
+    }
+
+    private static int toTag(String s) {
+        if (s.length() == 8 && s.matches("[0-9A-Fa-f]{8}")) {
+            return (int) Long.parseLong(s, 16);
+        }
+        int tag;
+        try {
+            tag = ElementDictionary.getDictionary().tagForName(s);
+        } catch (IllegalArgumentException e) {
+            tag = -1;
+        }
+        if (tag == -1) {
+            throw new IllegalArgumentException("unknown attribute keyword "
+                    + s);
+        }
+        return tag;
+    }
+
+    /**
+     * @return the number of mappings.
+     */
+    int size() {
+        return mappings.length;
+    }
+
+    /**
+     * Put the mapped attributes of a cephalogram into its DICOM object.
+     * <p>
+     * Missing properties give empty attributes. Values that cannot be parsed
+     * are logged and give empty attributes too.
+     *
+     * @param props
+     *            The cephalogram properties.
+     * @param dcmobj
+     *            The object to fill.
+     */
+    public void apply(Properties props, DicomObject dcmobj) {
+        for (Mapping m : mappings) {
+            String value = props.getProperty(m.key);
+            if (value == null) {
+                dcmobj.putNull(m.tag, m.vr);
+                continue;
+            }
+            try {
+                dcmobj.putString(m.tag, m.vr, m.parser.parse(value));
+            } catch (DateTimeParseException e) {
+                Log.warn("Could not parse " + m.key + "=" + value
+                        + ". Setting to null.");
+                dcmobj.putNull(m.tag, m.vr);
+            }
+        }
+    }
+}
@@ -37,21 +37,32 @@ import org.dcm4che2.iod.value.PixelRepresentation;
 import org.dcm4che2.iod.value.PositionerType;
 import org.dcm4che2.iod.value.PresentationIntentType;
 import org.dcm4che2.iod.value.TableType;
-import org.dcm4che2.util.UIDUtils;
 import org.devlib.schmidt.imageinfo.ImageInfo;
 import org.open_ortho.dcm4ceph.util.DcmUtils;
+import org.open_ortho.dcm4ceph.util.DigestUtils;
 import org.open_ortho.dcm4ceph.util.FileUtils;
 import org.open_ortho.dcm4ceph.util.Log;
+import org.open_ortho.dcm4ceph.util.UIDStrategy;
 
-import javax.imageio.stream.FileImageInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Properties;
@@ -77,6 +88,24 @@ public class Cephalogram extends DXImage {
 
     private static final int minimumAllowedDPI = 128;
 
+    /**
+     * Largest length of a pixel data fragment whose item length, padded to
+     * an even number, still fits in a signed 32-bit int. It is even itself,
+     * so only the last fragment is ever padded.
+     */
+    static final long MAX_FRAGMENT_SIZE = (Integer.MAX_VALUE - 1) & ~1L;
+
+    private static volatile long defaultFragmentSize;
+
+    /**
+     * Length of the pixel data fragments, or 0 for a single fragment.
+     */
+    private long fragmentSize = defaultFragmentSize;
+
+    private static volatile JpegSegmentFilter defaultSegmentFilter;
+
+    private JpegSegmentFilter segmentFilter = defaultSegmentFilter;
+
     // private int DPI = 300;
 
     /**
@@ -84,11 +113,28 @@ public class Cephalogram extends DXImage {
      */
     private File imageFile;
 
+    /**
+     * The image of a cephalogram created from a stream, or null.
+     */
+    private ImageSource imageSource;
+
+    /**
+     * The SHA-256 digest of the image, in hex, once it is known.
+     */
+    private String imageDigest;
+
     /**
      * input properties
      */
     private Properties instanceProperties;
 
+    private static volatile boolean headerTemplateEnabled;
+
+    /**
+     * The header template this cephalogram was created from, or null.
+     */
+    private CephalogramTemplate template;
+
     public static final String[] PRIMARYIMAGETYPE = { ImageTypeValue1.ORIGINAL,
             ImageTypeValue2.PRIMARY, ImageTypeValue3.NULL };
 
@@ -96,20 +142,87 @@ public class Cephalogram extends DXImage {
             ImageTypeValue1.ORIGINAL, ImageTypeValue2.SECONDARY,
             ImageTypeValue3.NULL };
 
-    public Cephalogram(File cephFile) throws FileNotFoundException {
-        this(cephFile, null);
+    public Cephalogram(File cephFile) throws IOException {
+        this(cephFile, (File) null);
+    }
+
+    /**
+     * Create a new cephalogram from an image and its properties.
+     *
+     * @param cephFile
+     *            The JPEG image.
+     * @param configFile
+     *            The .properties file of the image. Can be {@code null}, in
+     *            which case the .properties file with the same name as the
+     *            image is used.
+     * @throws FileNotFoundException
+     *             if the image does not exist.
+     * @throws ConversionException
+     *             if the .properties file cannot be read.
+     */
+    public Cephalogram(File cephFile, File configFile) throws IOException {
+        this(cephFile, readProperties(cephFile, configFile));
+    }
+
+    /**
+     * Create a new cephalogram from an image and properties read elsewhere,
+     * e.g. from a row of a manifest.
+     *
+     * @param cephFile
+     *            The JPEG image.
+     * @param properties
+     *            The properties of the image, as they would be read from its
+     *            .properties file.
+     * @throws FileNotFoundException
+     *             if the image does not exist.
+     */
+    public Cephalogram(File cephFile, Properties properties)
+            throws IOException {
+        this(cephFile, properties, null);
     }
 
-    public Cephalogram(File cephFile, File configFile) throws FileNotFoundException {
+    /**
+     * Create a new cephalogram from an image whose digest is already known,
+     * e.g. because it was looked up in an index, so that the image is not
+     * read again for it.
+     *
+     * @param cephFile
+     *            The JPEG image.
+     * @param properties
+     *            The properties of the image, or {@code null} to read the
+     *            .properties file with the same name as the image.
+     * @param imageDigest
+     *            The {@link DigestUtils#SHA256} digest of the image file, in
+     *            hex, or {@code null} to compute it when needed.
+     * @throws FileNotFoundException
+     *             if the image does not exist.
+     * @throws ConversionException
+     *             if the .properties file cannot be read.
+     */
+    public Cephalogram(File cephFile, Properties properties,
+            String imageDigest) throws IOException {
         super(new BasicDicomObject());
 
+        if (properties == null) {
+            properties = readProperties(cephFile, null);
+        }
         if (!cephFile.exists()) {
             throw new FileNotFoundException("input file not found");
         }
         setImageFile(cephFile);
 
-        initDximage();
+        initHeader();
+
+        instanceProperties = properties;
+        this.imageDigest = imageDigest;
+        initDerivedUIDs();
+    }
 
+    private static Properties readProperties(File cephFile, File configFile)
+            throws IOException {
+        if (!cephFile.exists()) {
+            throw new FileNotFoundException("input file not found");
+        }
         // if explicit configFile .properties file is passed, use that first
         if (configFile == null) {
             // if no configFile is passed, try to load default
@@ -126,17 +239,73 @@ public class Cephalogram extends DXImage {
                 "You may find example .properties file here: https://github.com/open-ortho/dcm4ceph/blob/master/dcm4ceph-sampledata/B1893F12.properties \n" +
                 "You may also find sensible defaults .properties file here: https://github.com/open-ortho/dcm4ceph/blob/master/dcm4ceph-core/src/main/resources/ceph_defaults.properties "
             );
-            // exit if we were unable to load properties
-            System.exit(1);
-            return;
+            throw new ConversionException(cephFile, "cannot read "
+                    + configFile.getName());
         }
-        instanceProperties = configLoaded;
+        return configLoaded;
+    }
+
+    /**
+     * Create a new cephalogram from a JPEG stream.
+     * <p>
+     * The stream is read into memory, so that nothing has to be staged on
+     * disk. It is not closed.
+     *
+     * @param image
+     *            The JPEG image.
+     * @param length
+     *            The length of the image in bytes, or -1 to read up to the
+     *            end of the stream.
+     * @param properties
+     *            The properties of the image, as they would be read from its
+     *            .properties file.
+     */
+    public Cephalogram(InputStream image, long length, Properties properties)
+            throws IOException {
+        this(image instanceof FileInputStream ? ((FileInputStream) image)
+                .getChannel() : Channels.newChannel(image), length, properties);
+    }
+
+    /**
+     * Create a new cephalogram from a JPEG channel.
+     * <p>
+     * The channel is read into memory, so that nothing has to be staged on
+     * disk, except for a {@link FileChannel}, whose image is copied from its
+     * current position when the cephalogram is written. The channel is not
+     * closed.
+     *
+     * @param image
+     *            The JPEG image.
+     * @param length
+     *            The length of the image in bytes, or -1 to read up to the
+     *            end of the channel.
+     * @param properties
+     *            The properties of the image, as they would be read from its
+     *            .properties file.
+     */
+    public Cephalogram(ReadableByteChannel image, long length,
+            Properties properties) throws IOException {
+        super(new BasicDicomObject());
+        imageSource = ImageSource.read(image, length);
+        initHeader();
+        instanceProperties = properties;
+        initDerivedUIDs();
     }
 
     Cephalogram(DicomObject dcmobj) {
         super(dcmobj);
     }
 
+    private void initHeader() {
+        if (headerTemplateEnabled) {
+            template = CephalogramTemplate.get(transferSyntax);
+            template.copyTo(dcmobj);
+            initInstanceAttributes();
+        } else {
+            initDximage();
+        }
+    }
+
     /**
      * Perform initialization procedure.
      * <p>
@@ -144,21 +313,24 @@ public class Cephalogram extends DXImage {
      * the instance of the class.
      */
     public void initDximage() {
+        initInvariantAttributes();
+        initInstanceAttributes();
+    }
+
+    /**
+     * Set the attributes that are the same for every cephalogram.
+     *
+     * @see CephalogramTemplate
+     */
+    void initInvariantAttributes() {
         super.init();
 
         // Set SOP stuff.
         getSopCommonModule().setSOPClassUID(
                 UID.DigitalXRayImageStorageForProcessing);
-        getSopCommonModule().setSOPInstanceUID(UIDUtils.createUID());
 
         // Set the Series (DX and General) Module Attributes
         getDXSeriesModule().setModality(Modality.DX);
-        if (this.getSeriesUID() == null) {
-            this.setSeriesUID(makeInstanceUID());
-        }
-
-        // Set a default series date of now, which will be changed later.
-        getDXSeriesModule().setSeriesDateTime(new Date());
         getDXSeriesModule().setPresentationIntentType(
                 PresentationIntentType.PROCESSING);
 
@@ -188,6 +360,147 @@ public class Cephalogram extends DXImage {
         getDXAnatomyImageModule().setAnatomicRegionCode(anatomicCode);
     }
 
+    /**
+     * Set the attributes that identify this cephalogram.
+     */
+    private void initInstanceAttributes() {
+        getSopCommonModule().setSOPInstanceUID(DcmUtils.createUID());
+        if (this.getSeriesUID() == null) {
+            this.setSeriesUID(makeInstanceUID());
+        }
+
+        // Set a default series date of now, which will be changed later.
+        getDXSeriesModule().setSeriesDateTime(new Date());
+    }
+
+    /**
+     * Derive the UIDs of this cephalogram from its properties and image, if
+     * the {@link UIDStrategy} is deterministic.
+     * <p>
+     * The study UID depends on the patient ID and study date, the series UID
+     * also on the cephalogram type, and the SOP Instance UID also on the
+     * digest of the image, which is read once more for that unless it was
+     * passed in.
+     *
+     * @see DcmUtils#setUIDStrategy(UIDStrategy)
+     */
+    private void initDerivedUIDs() throws IOException {
+        UIDStrategy uids = DcmUtils.getUIDStrategy();
+        if (!uids.isDeterministic()) {
+            return;
+        }
+        String patientID = instanceProperties.getProperty("patientID");
+        String studyDate = instanceProperties.getProperty("studyDate");
+        String type = instanceProperties.getProperty("cephalogramType");
+        if (imageDigest == null) {
+            MessageDigest md = DigestUtils.newDigest(DigestUtils.SHA256);
+            try (ImageSource image = openImage()) {
+                image.transferTo(0, image.size(), DigestUtils
+                        .digestingChannel(md, null));
+            }
+            imageDigest = DigestUtils.toHex(md.digest());
+        }
+        String source = imageDigest;
+        setStudyUID(uids.createUID("study", patientID, studyDate));
+        setSeriesUID(uids.createUID("series", patientID, studyDate, type));
+        getSopCommonModule().setSOPInstanceUID(
+                uids.createUID("image", patientID, studyDate, type, source));
+    }
+
+    /**
+     * Split the encapsulated pixel data into fragments.
+     * <p>
+     * Viewers can start decoding after the first fragment has arrived. Images
+     * larger than 2 GB are always split, because a fragment length has 32
+     * bits.
+     *
+     * @param bytes
+     *            The length of the fragments, rounded down to an even number,
+     *            or 0 to write the image in a single fragment.
+     */
+    public void setFragmentSize(long bytes) {
+        fragmentSize = evenFragmentSize(bytes);
+    }
+
+    /**
+     * @return the length of the pixel data fragments, or 0 for a single
+     *         fragment.
+     */
+    public long getFragmentSize() {
+        return fragmentSize;
+    }
+
+    /**
+     * Leave marker segments out of the JPEG stream.
+     * <p>
+     * The segments are skipped while the image is copied into the pixel data,
+     * so that large EXIF, ICC and vendor blocks do not end up in the archive.
+     * The text of stripped comments is stored in Image Comments, a stripped
+     * ICC profile in ICC Profile, and a list of the stripped segments in
+     * Derivation Description.
+     *
+     * @param filter
+     *            The segments to strip, or {@code null} to copy the image
+     *            unchanged.
+     * @see JpegSegmentFilter#METADATA
+     */
+    public void setSegmentFilter(JpegSegmentFilter filter) {
+        segmentFilter = filter;
+    }
+
+    /**
+     * Set the segment filter of the cephalograms created from now on.
+     *
+     * @param filter
+     *            The segments to strip, or {@code null} to copy images
+     *            unchanged.
+     * @see #setSegmentFilter(JpegSegmentFilter)
+     */
+    public static void setDefaultSegmentFilter(JpegSegmentFilter filter) {
+        defaultSegmentFilter = filter;
+    }
+
+    /**
+     * Set the fragment size of the cephalograms created from now on.
+     *
+     * @param bytes
+     *            The length of the fragments, or 0 for a single fragment.
+     * @see #setFragmentSize(long)
+     */
+    public static void setDefaultFragmentSize(long bytes) {
+        defaultFragmentSize = evenFragmentSize(bytes);
+    }
+
+    private static long evenFragmentSize(long bytes) {
+        if (bytes <= 0) {
+            return 0;
+        }
+        return Math.max(2, Math.min(bytes, MAX_FRAGMENT_SIZE) & ~1L);
+    }
+
+    /**
+     * Build new cephalograms from a shared, pre-encoded header template.
+     * <p>
+     * The attributes that are the same for every cephalogram are then built
+     * and encoded only once, and only the attributes of each instance are
+     * encoded when it is written. The output is the same either way.
+     *
+     * @param enabled
+     *            {@code true} to use the template for cephalograms created
+     *            from now on.
+     */
+    public static void setHeaderTemplateEnabled(boolean enabled) {
+        headerTemplateEnabled = enabled;
+    }
+
+    /**
+     * @return whether new cephalograms use the header template.
+     * @see #setHeaderTemplateEnabled(boolean)
+     */
+    public static boolean isHeaderTemplateEnabled() {
+        return headerTemplateEnabled;
+    }
+
     /**
      * Set this cephalogram to ORIGINAL/PRIMARY.
      * <p>
@@ -216,21 +529,77 @@ public class Cephalogram extends DXImage {
      * This method sets the various DICOM attributes that are specific to this
      * Cephalogram instance.
      *
+     * @param image
+     *            The image. It is only read.
+     * @return the JPEG stream to encapsulate: the image, without the
+     *         segments selected by {@link #setSegmentFilter(JpegSegmentFilter)}.
+     *
      * @see #setDcmobjTagsFromProperties(Properties)
-     * @see #setImageAttributes(FileImageInputStream)
+     * @see #setImageAttributes(ByteBuffer)
      *
      */
-    private void prepareDcmobj() throws IOException {
+    ImageSource prepareDcmobj(ImageSource image) throws IOException {
         setDcmobjTagsFromProperties(instanceProperties);
-        try (FileImageInputStream is = new FileImageInputStream(imageFile)) {
-            setImageAttributes(is);
-        }
+        ByteBuffer header = image.header();
+        setImageAttributes(header.duplicate());
         DcmUtils.ensureUID(dcmobj, Tag.StudyInstanceUID);
         DcmUtils.ensureUID(dcmobj, Tag.SeriesInstanceUID);
         DcmUtils.ensureUID(dcmobj, Tag.SOPInstanceUID);
 
         dcmobj.putString(Tag.SpecificCharacterSet, VR.CS, DEFAULT_CHARSET);
         dcmobj.initFileMetaInformation(transferSyntax);
+
+        return segmentFilter == null ? image : stripSegments(image, header);
+    }
+
+    private ImageSource stripSegments(ImageSource image, ByteBuffer header)
+            throws IOException {
+        JpegSegmentFilter.Segments segments = segmentFilter.scan(header,
+                image.size());
+        if (segments == null) {
+            Log.warn("Could not walk the JPEG segments of " + imageFile
+                    + ". Copying it unchanged.");
+            return image;
+        }
+        if (segments.strippedCount == 0) {
+            return image;
+        }
+        Log.info("Stripped " + segments.strippedCount + " JPEG segments, "
+                + segments.strippedBytes + " bytes.");
+        // What was left out is recorded with the image.
+        StringBuilder derivation = new StringBuilder(
+                "Stripped JPEG segments: ");
+        for (int i = 0; i < segments.stripped.size(); i++) {
+            if (i > 0) {
+                derivation.append(", ");
+            }
+            derivation.append(segments.stripped.get(i));
+        }
+        String previous = dcmobj.getString(Tag.DerivationDescription);
+        dcmobj.putString(Tag.DerivationDescription, VR.ST,
+                previous == null || previous.length() == 0 ? derivation
+                        .toString() : previous + "\n" + derivation);
+        if (segments.iccProfile != null
+                && !dcmobj.containsValue(Tag.ICCProfile)) {
+            dcmobj.putBytes(Tag.ICCProfile, VR.OB, segments.iccProfile);
+        }
+        // The text of stripped comments is kept in the header.
+        if (!segments.comments.isEmpty()
+                && !dcmobj.containsValue(Tag.ImageComments)) {
+            StringBuilder sb = new StringBuilder();
+            for (String comment : segments.comments) {
+                if (comment.length() > 0) {
+                    if (sb.length() > 0) {
+                        sb.append('\n');
+                    }
+                    sb.append(comment);
+                }
+            }
+            if (sb.length() > 0) {
+                dcmobj.putString(Tag.ImageComments, VR.LT, sb.toString());
+            }
+        }
+        return image.ranges(segments.kept);
     }
 
     public void validate(ValidationContext ctx, ValidationResult result) {
@@ -270,50 +639,19 @@ public class Cephalogram extends DXImage {
 
     }
 
+    /**
+     * Set the attributes of this cephalogram from its properties.
+     * <p>
+     * Plain attributes are set through {@link CephPropertyMapping}; the
+     * attributes that depend on several properties are set here.
+     *
+     * @param cephprops the cephalogram properties
+     */
     public void setDcmobjTagsFromProperties(Properties cephprops) {
-        getPatientModule()
-                .setPatientName(cephprops.getProperty("patientName"));
-        getPatientModule().setPatientID(cephprops.getProperty("patientID"));
-        try {
-            DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd");
-            Date PatientBirthDate = formatter.parse(cephprops.getProperty("patientDOB"));
-            getPatientModule().setPatientBirthDate(PatientBirthDate);
-        } catch (ParseException e) {
-            e.printStackTrace();
-            Log.warn("Could not parse DOB correctly. Setting to null.");
-            getPatientModule().setPatientBirthDate(null);
-        }
-
-        try {
-            DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm");
-            getGeneralStudyModule().setStudyDateTime(
-                    formatter.parse(
-                            cephprops.getProperty("studyDate") + " "
-                                    + cephprops.getProperty("studyTime")));
-        } catch (ParseException e) {
-            e.printStackTrace();
-            Log.warn("Could not parse Study Date Time correctly. Using current date time.");
-            getGeneralStudyModule().setStudyDateTime(new Date());
-        }
-        // Set Series date and time to Study date and time.
-        getDXSeriesModule().setSeriesDateTime(getGeneralStudyModule().getStudyDateTime());
-
-        getPatientModule().setEthnicGroup(cephprops.getProperty("ethnicGroup"));
-
-        getDicomObject().putString(Tag.PatientAge,VR.AS,cephprops.getProperty("patientAge"));
-        getPatientModule().setPatientSex(cephprops.getProperty("patientSex"));
-
-        getGeneralStudyModule().setReferringPhysiciansName(
-                cephprops.getProperty("referringPhysician"));
-        getGeneralStudyModule().setStudyID(cephprops.getProperty("studyID"));
-        getGeneralStudyModule().setAccessionNumber(
-                cephprops.getProperty("accessionNumber"));
-
-        getDXSeriesModule().setSeriesNumber(
-                cephprops.getProperty("seriesNumber"));
+        CephPropertyMapping.getDefault().apply(cephprops, dcmobj);
 
-        getDXImageModule().setInstanceNumber(
-                cephprops.getProperty("instanceNumber"));
+        setStudyDateTime(cephprops.getProperty("studyDate"),
+                cephprops.getProperty("studyTime"));
 
         String[] patientOrientation = {
                 cephprops.getProperty("patientOrientationRow"),
@@ -321,9 +659,6 @@ public class Cephalogram extends DXImage {
         getDXImageModule().setPatientOrientation(patientOrientation);
         setImageOrientation(patientOrientation);
 
-        getDXSeriesModule().setSeriesNumber(
-                cephprops.getProperty("seriesNumber"));
-
         try {
             setDistances(
                       Float.parseFloat(cephprops.getProperty("sid"))
@@ -343,6 +678,40 @@ public class Cephalogram extends DXImage {
         }
     }
 
+    /**
+     * Set Study and Series Date and Time.
+     * <p>
+     * If the date or the time cannot be parsed, the current date and time are
+     * used.
+     *
+     * @param date yyyy-MM-dd
+     * @param time HH:mm, with optional seconds
+     */
+    private void setStudyDateTime(String date, String time) {
+        String da = null, tm = null;
+        if (date != null && time != null) {
+            try {
+                da = LocalDate.parse(date, CephPropertyMapping.PROPERTY_DATE)
+                        .format(CephPropertyMapping.DICOM_DATE);
+                tm = LocalTime.parse(time, CephPropertyMapping.PROPERTY_TIME)
+                        .format(CephPropertyMapping.DICOM_TIME);
+            } catch (DateTimeParseException e) {
+                da = null;
+            }
+        }
+        if (da == null || tm == null) {
+            Log.warn("Could not parse Study Date Time correctly. Using current date time.");
+            LocalDateTime now = LocalDateTime.now();
+            da = now.format(CephPropertyMapping.DICOM_DATE);
+            tm = now.format(CephPropertyMapping.DICOM_TIME);
+        }
+        dcmobj.putString(Tag.StudyDate, VR.DA, da);
+        dcmobj.putString(Tag.StudyTime, VR.TM, tm);
+        // Set Series date and time to Study date and time.
+        dcmobj.putString(Tag.SeriesDate, VR.DA, da);
+        dcmobj.putString(Tag.SeriesTime, VR.TM, tm);
+    }
+
     private void setImageOrientation(String[] patientOrientation2) {
         if (Arrays.equals(patientOrientation2, PatientOrientation.AF)) {
             dcmobj.putFloats(Tag.ImageOrientationPatient, VR.DS,
@@ -497,6 +866,7 @@ public class Cephalogram extends DXImage {
      */
     public void setImageFile(File file) {
         this.imageFile = file;
+        this.imageDigest = null;
     }
 
     /**
@@ -508,10 +878,16 @@ public class Cephalogram extends DXImage {
 
     /**
      * Gets the pure file name of the DICOM representation of this Cephalogram.
+     * <p>
+     * For a cephalogram created from a stream, this is its SOP Instance UID
+     * with the .dcm extension.
      *
      * @return image filename with output .dcm format extension
      */
     public String getDCMFileName() {
+        if (imageFile == null) {
+            return getUID() + ".dcm";
+        }
         return FileUtils.getDCMFileName(imageFile);
     }
 
@@ -741,8 +1117,108 @@ public class Cephalogram extends DXImage {
             return writeDCM();
         }
 
+        // The image is opened once: its header is probed through the same
+        // source the pixel data is copied from.
+        try (ImageSource image = openImage()) {
+            ImageSource jpeg = prepare(image);
+            try (FileOutputStream fos = new FileOutputStream(dcmFile)) {
+                Log.info("Writing to file " + dcmFile.getCanonicalPath());
+                write(jpeg, fos, fos.getChannel());
+            }
+        }
+        return dcmFile;
+    }
+
+    /**
+     * Write this Cephalogram in a DICOM .dcm file, and compute the digests of
+     * the image and of the DICOM file on the way.
+     * <p>
+     * The digests are updated from the bytes as they are written, so neither
+     * file has to be read again. The image is then copied through a buffer
+     * rather than with {@link FileChannel#transferTo}. When JPEG segments are
+     * stripped, the image is read once more for its digest. A
+     * {@link DigestUtils#SHA256} digest of the image that is already known is
+     * not computed again.
+     *
+     * @param dcmFile
+     *            The output file.
+     * @param algorithm
+     *            The digest algorithm, such as {@code SHA-256}.
+     * @return the written file and the digests of the image and of the file
+     */
+    public ConversionResult writeDCM(File dcmFile, String algorithm)
+            throws IOException {
+        long start = System.nanoTime();
+        // The digest of the image, if it was already computed.
+        String knownDigest = DigestUtils.SHA256.equalsIgnoreCase(algorithm)
+                ? imageDigest : null;
+        MessageDigest sourceDigest = knownDigest != null ? null : DigestUtils
+                .newDigest(algorithm);
+        MessageDigest outputDigest = DigestUtils.newDigest(algorithm);
+        try (ImageSource image = openImage()) {
+            ImageSource jpeg = prepare(image);
+            if (sourceDigest != null && jpeg != image) {
+                image.transferTo(0, image.size(),
+                        DigestUtils.digestingChannel(sourceDigest, null));
+            }
+            try (FileOutputStream fos = new FileOutputStream(dcmFile)) {
+                Log.info("Writing to file " + dcmFile.getCanonicalPath());
+                WritableByteChannel channel = DigestUtils.digestingChannel(
+                        outputDigest, fos.getChannel());
+                if (sourceDigest != null && jpeg == image) {
+                    channel = DigestUtils.digestingChannel(sourceDigest,
+                            channel);
+                }
+                write(jpeg, new DigestOutputStream(fos, outputDigest), channel);
+            }
+        }
+        return ConversionResult.success(imageFile, dcmFile, System.nanoTime()
+                - start, knownDigest != null ? knownDigest : DigestUtils
+                .toHex(sourceDigest.digest()), DigestUtils.toHex(outputDigest
+                .digest()));
+    }
+
+    /**
+     * Write this Cephalogram as a DICOM file to a stream.
+     * <p>
+     * Before writing, checks the validity of the object. The stream is
+     * flushed, but not closed.
+     *
+     * @param out
+     *            The stream to write to.
+     */
+    public void writeDCM(OutputStream out) throws IOException {
+        try (ImageSource image = openImage()) {
+            ImageSource jpeg = prepare(image);
+            write(jpeg, out,
+                    out instanceof FileOutputStream ? ((FileOutputStream) out)
+                            .getChannel() : Channels.newChannel(out));
+        }
+    }
+
+    /**
+     * Write this Cephalogram as a DICOM file to a channel.
+     * <p>
+     * Before writing, checks the validity of the object. The channel is not
+     * closed.
+     *
+     * @param out
+     *            The channel to write to.
+     */
+    public void writeDCM(WritableByteChannel out) throws IOException {
+        try (ImageSource image = openImage()) {
+            ImageSource jpeg = prepare(image);
+            write(jpeg, Channels.newOutputStream(out), out);
+        }
+    }
+
+    private ImageSource openImage() throws IOException {
+        return imageSource != null ? imageSource : ImageSource.open(imageFile);
+    }
+
+    private ImageSource prepare(ImageSource image) throws IOException {
         // First prepare the dicom object.
-        prepareDcmobj();
+        ImageSource jpeg = prepareDcmobj(image);
 
         // Then verify it.
         ValidationResult results = new ValidationResult();
@@ -752,34 +1228,62 @@ public class Cephalogram extends DXImage {
             Log.err("Dicom object did not pass validity tests.");
             System.err.println(results.getInvalidValues().toString());
         }
+        return jpeg;
+    }
 
-        try (FileOutputStream fos = new FileOutputStream(dcmFile);
-            BufferedOutputStream bos = new BufferedOutputStream(fos);
-            DicomOutputStream dos = new DicomOutputStream(bos);
-            FileImageInputStream instream = new FileImageInputStream(imageFile);
-        ) {
-            Log.info("Writing to file " + dcmFile.getCanonicalPath());
-
+    /**
+     * Write the prepared object and its image.
+     *
+     * @param out
+     *            The stream the header is written to.
+     * @param channel
+     *            The channel the image is copied to. It writes to the same
+     *            destination as out.
+     */
+    private void write(ImageSource image, OutputStream out,
+            WritableByteChannel channel) throws IOException {
+        DicomOutputStream dos = new DicomOutputStream(
+                new BufferedOutputStream(out));
+        if (template != null) {
+            dos.writeFileMetaInformation(dcmobj);
+            template.writeDataset(dos, dcmobj);
+        } else {
             dos.writeDicomFile(dcmobj);
-            dos.writeHeader(Tag.PixelData, VR.OB, -1);
-            dos.writeHeader(Tag.Item, null, 0);
-            int jpgLen = (int) instream.length();
-            dos.writeHeader(Tag.Item, null, (jpgLen + 1) & ~1);
-            int bufferSize = 8192;
-            byte[] b = new byte[bufferSize];
-            int r;
-            while ((r = instream.read(b)) > 0) {
-                dos.write(b, 0, r);
-            }
-            if ((jpgLen & 1) != 0) {
+        }
+        dos.writeHeader(Tag.PixelData, VR.OB, -1);
+        // Basic Offset Table: the single frame starts with the first
+        // fragment.
+        dos.writeHeader(Tag.Item, null, 4);
+        dos.write(new byte[4]);
+        long jpgLen = image.size();
+        long fragment = fragmentSize > 0 ? fragmentSize : MAX_FRAGMENT_SIZE;
+        for (long pos = 0; pos < jpgLen; pos += fragment) {
+            long len = Math.min(fragment, jpgLen - pos);
+            dos.writeHeader(Tag.Item, null, (int) ((len + 1) & ~1L));
+            // The JPEG stream goes straight from the image to the output:
+            // flush what is buffered so far, then let the channel copy the
+            // pixel data.
+            dos.flush();
+            image.transferTo(pos, len, channel);
+            // Only the last fragment can have an odd length.
+            if ((len & 1) != 0) {
                 dos.write(0);
             }
-            dos.writeHeader(Tag.SequenceDelimitationItem, null, 0);
         }
-        return dcmFile;
+        dos.writeHeader(Tag.SequenceDelimitationItem, null, 0);
+        dos.flush();
     }
 
+    /**
+     * @return the .dcm file next to the image file.
+     * @throws IllegalStateException
+     *             if this cephalogram was created from a stream.
+     */
     public File getDCMFile() {
+        if (imageFile == null) {
+            throw new IllegalStateException(
+                    "Cephalogram was not created from a file");
+        }
         return FileUtils.getDCMFile(this.imageFile);
     }
 
@@ -829,16 +1333,16 @@ public class Cephalogram extends DXImage {
         return c;
     }
 
-    private void setImageAttributes(FileImageInputStream fiis)
-            throws IOException {
+    private void setImageAttributes(ByteBuffer header)
+            throws ConversionException {
 
         ImageInfo ii = new ImageInfo();
-        ii.setInput(fiis);
+        ii.setInput(header);
         ii.setDetermineImageNumber(true); // default is false
         ii.setCollectComments(true); // default is false
         if (!ii.check()) {
-            Log.err("Not a supported image file format.");
-            return;
+            throw new ConversionException(imageFile,
+                    "not a supported image file format");
         }
         Log.info(ii.getFormatName() + ", " + ii.getMimeType() + ", "
                 + ii.getWidth() + " x " + ii.getHeight() + " pixels, "
@@ -865,9 +1369,6 @@ public class Cephalogram extends DXImage {
         imagerPixelSpacing[1] = (float) (1.0 / ii.getPhysicalHeightDpi() * mmPerInch);
         getDXDetectorModule().setImagerPixelSpacing(imagerPixelSpacing);
         getDXDetectorModule().setPixelSpacing(imagerPixelSpacing);
-
-        fiis.seek(0);
-
     }
 
     private void setOrientation(float prim, float sec, ViewCode viewcode) {
@@ -885,7 +1386,7 @@ public class Cephalogram extends DXImage {
     }
 
     private String makeInstanceUID() {
-        return UIDUtils.createUID();
+        return DcmUtils.createUID();
     }
 
     public String toString() {
@@ -0,0 +1,173 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.dcm4che2.data.BasicDicomObject;
+import org.dcm4che2.data.DicomElement;
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.data.TransferSyntax;
+import org.dcm4che2.io.DicomOutputStream;
+
+/**
+ * The part of a cephalogram header that is the same for every cephalogram.
+ * <p>
+ * The attributes set by {@link Cephalogram#initInvariantAttributes()} are
+ * built once, and each of them is encoded once. A cephalogram created in
+ * template mode copies them instead of building its own, and its dataset is
+ * written by merging, in tag order, the cached encoding of each template
+ * attribute that it did not change with the encoding of its own attributes.
+ * <p>
+ * Sequences are copied item by item, so that a cephalogram can change a code
+ * in place without changing the template, and they are always encoded again,
+ * because such a change cannot be seen from the sequence element. There is
+ * a template for each transfer syntax.
+ *
+ * @author afm
+ *
+ */
+class CephalogramTemplate {
+
+    private static final ConcurrentMap<String, CephalogramTemplate> templates = new ConcurrentHashMap<String, CephalogramTemplate>();
+
+    private final DicomObject invariant;
+
+    private final TransferSyntax ts;
+
+    private final int[] tags;
+
+    private final DicomElement[] elements;
+
+    private final byte[][] encoded;
+
+    private CephalogramTemplate(String tsuid) throws IOException {
+        Cephalogram ceph = new Cephalogram(new BasicDicomObject());
+        ceph.initInvariantAttributes();
+        invariant = ceph.getDicomObject();
+        ts = TransferSyntax.valueOf(tsuid);
+
+        List<DicomElement> list = new ArrayList<DicomElement>();
+        for (Iterator<DicomElement> it = invariant.iterator(); it.hasNext();) {
+            list.add(it.next());
+        }
+        tags = new int[list.size()];
+        elements = list.toArray(new DicomElement[list.size()]);
+        encoded = new byte[list.size()][];
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(256);
+        for (int i = 0; i < elements.length; i++) {
+            tags[i] = elements[i].tag();
+            if (elements[i].hasItems()) {
+                // never reused, see isUnchanged
+                continue;
+            }
+            buf.reset();
+            DicomOutputStream dos = new DicomOutputStream(buf);
+            dos.writeDataset(invariant.subSet(tags[i], tags[i] + 1), ts);
+            dos.flush();
+            encoded[i] = buf.toByteArray();
+        }
+    }
+
+    /**
+     * The shared template of a transfer syntax, built on first use.
+     *
+     * @param tsuid
+     *            The transfer syntax the cephalograms are written with.
+     */
+    static CephalogramTemplate get(String tsuid) {
+        return templates.computeIfAbsent(tsuid, k -> {
+            try {
+                return new CephalogramTemplate(k);
+            } catch (IOException e) {
+                // Only writes to memory.
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Put a copy of the invariant attributes into a new cephalogram object.
+     */
+    void copyTo(DicomObject dcmobj) {
+        copy(invariant, dcmobj);
+    }
+
+    /**
+     * Copy attributes, with new items for sequences. Other elements are
+     * shared: their values are replaced, never changed in place.
+     */
+    private static void copy(DicomObject src, DicomObject dst) {
+        for (Iterator<DicomElement> it = src.iterator(); it.hasNext();) {
+            DicomElement e = it.next();
+            if (e.hasDicomObjects()) {
+                DicomElement sq = dst.putSequence(e.tag(), e.countItems());
+                for (int i = 0; i < e.countItems(); i++) {
+                    DicomObject item = new BasicDicomObject();
+                    copy(e.getDicomObject(i), item);
+                    sq.addDicomObject(item);
+                }
+            } else {
+                dst.add(e);
+            }
+        }
+    }
+
+    /**
+     * Write the dataset of a cephalogram, without its file meta information
+     * and up to, not including, the Pixel Data.
+     *
+     * @param dos
+     *            The stream, positioned after the file meta information.
+     * @param dcmobj
+     *            The cephalogram object, created from this template.
+     */
+    void writeDataset(DicomOutputStream dos, DicomObject dcmobj)
+            throws IOException {
+        // Group 0002 is the file meta information, written separately.
+        int from = 0x00030000;
+        for (int i = 0; i < tags.length; i++) {
+            int tag = tags[i];
+            dos.writeDataset(dcmobj.subSet(from, tag), ts);
+            DicomElement e = dcmobj.get(tag);
+            if (e != null) {
+                if (isUnchanged(e, i)) {
+                    dos.write(encoded[i]);
+                } else {
+                    dos.writeDataset(dcmobj.subSet(tag, tag + 1), ts);
+                }
+            }
+            from = tag + 1;
+        }
+        dos.writeDataset(dcmobj.subSet(from, Tag.PixelData), ts);
+    }
+
+    private boolean isUnchanged(DicomElement e, int i) {
+        DicomElement t = elements[i];
+        // Items of a sequence may have been changed in place.
+        if (e.hasItems() || t.hasItems()) {
+            return false;
+        }
+        if (e == t) {
+            return true;
+        }
+        return e.vr() == t.vr() && Arrays.equals(e.getBytes(), t.getBytes());
+    }
+}
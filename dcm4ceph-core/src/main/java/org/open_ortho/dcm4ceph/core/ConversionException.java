@@ -0,0 +1,62 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.core;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Thrown when an input cannot be converted to DICOM.
+ * <p>
+ * This covers bad inputs, such as a missing or unreadable .properties file or
+ * an image that is not a supported JPEG. It is an {@link IOException}, so that
+ * callers converting many files can log it and go on with the next file.
+ *
+ * @author afm
+ *
+ */
+public class ConversionException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File input;
+
+    /**
+     * @param input
+     *            The file that could not be converted.
+     * @param message
+     *            What is wrong with it.
+     */
+    public ConversionException(File input, String message) {
+        super(message);
+        this.input = input;
+    }
+
+    /**
+     * @param input
+     *            The file that could not be converted.
+     * @param message
+     *            What is wrong with it.
+     * @param cause
+     *            The error that caused the failure.
+     */
+    public ConversionException(File input, String message, Throwable cause) {
+        super(message, cause);
+        this.input = input;
+    }
+
+    /**
+     * @return the file that could not be converted.
+     */
+    public File getInput() {
+        return input;
+    }
+}
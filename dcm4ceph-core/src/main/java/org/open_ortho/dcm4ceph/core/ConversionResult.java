@@ -0,0 +1,209 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.core;
+
+import java.io.File;
+
+/**
+ * The outcome of the conversion of one input.
+ * <p>
+ * A result is either a success, with the file that was written, or a
+ * failure, with the error that stopped the conversion. A success can carry
+ * the digests of the input and of the output, computed while writing. A
+ * duplicate is an input that was not converted because the same content was
+ * already converted into another DICOM file.
+ *
+ * @author afm
+ *
+ */
+public class ConversionResult {
+
+    private final File input;
+
+    private final File output;
+
+    private final Throwable error;
+
+    private final long elapsedNanos;
+
+    private final String sourceDigest;
+
+    private final String outputDigest;
+
+    private final String duplicateOf;
+
+    private ConversionResult(File input, File output, Throwable error,
+            long elapsedNanos, String sourceDigest, String outputDigest) {
+        this(input, output, error, elapsedNanos, sourceDigest, outputDigest,
+                null);
+    }
+
+    private ConversionResult(File input, File output, Throwable error,
+            long elapsedNanos, String sourceDigest, String outputDigest,
+            String duplicateOf) {
+        this.input = input;
+        this.output = output;
+        this.error = error;
+        this.elapsedNanos = elapsedNanos;
+        this.sourceDigest = sourceDigest;
+        this.outputDigest = outputDigest;
+        this.duplicateOf = duplicateOf;
+    }
+
+    /**
+     * @param input
+     *            The converted file.
+     * @param output
+     *            The DICOM file that was written.
+     * @param elapsedNanos
+     *            How long the conversion took.
+     */
+    public static ConversionResult success(File input, File output,
+            long elapsedNanos) {
+        return new ConversionResult(input, output, null, elapsedNanos, null,
+                null);
+    }
+
+    /**
+     * @param input
+     *            The converted file.
+     * @param output
+     *            The DICOM file that was written.
+     * @param elapsedNanos
+     *            How long the conversion took.
+     * @param sourceDigest
+     *            Digest of the input, in hex, or {@code null}.
+     * @param outputDigest
+     *            Digest of the DICOM file, in hex.
+     */
+    public static ConversionResult success(File input, File output,
+            long elapsedNanos, String sourceDigest, String outputDigest) {
+        return new ConversionResult(input, output, null, elapsedNanos,
+                sourceDigest, outputDigest);
+    }
+
+    /**
+     * @param input
+     *            The file that was not converted.
+     * @param original
+     *            The DICOM file holding the same content.
+     * @param sopInstanceUID
+     *            The SOP Instance UID of that file.
+     * @param elapsedNanos
+     *            How long finding the duplicate took.
+     * @param sourceDigest
+     *            Digest of the input, in hex.
+     */
+    public static ConversionResult duplicate(File input, File original,
+            String sopInstanceUID, long elapsedNanos, String sourceDigest) {
+        return new ConversionResult(input, original, null, elapsedNanos,
+                sourceDigest, null, sopInstanceUID);
+    }
+
+    /**
+     * @param input
+     *            The file that could not be converted.
+     * @param error
+     *            Why it could not be converted.
+     * @param elapsedNanos
+     *            How long the attempt took.
+     */
+    public static ConversionResult failure(File input, Throwable error,
+            long elapsedNanos) {
+        return new ConversionResult(input, null, error, elapsedNanos, null,
+                null);
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return whether the input was not converted because its content was
+     *         already converted.
+     */
+    public boolean isDuplicate() {
+        return duplicateOf != null;
+    }
+
+    /**
+     * @return the SOP Instance UID holding the content of a duplicate, or
+     *         {@code null}.
+     */
+    public String getDuplicateOf() {
+        return duplicateOf;
+    }
+
+    public File getInput() {
+        return input;
+    }
+
+    /**
+     * @return the DICOM file written, the DICOM file holding the content of a
+     *         duplicate, or {@code null} for a failure.
+     */
+    public File getOutput() {
+        return output;
+    }
+
+    /**
+     * @return the cause of a failure, or {@code null} for a success.
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * @return a one line description of the cause of a failure, the SOP
+     *         Instance UID a duplicate refers to, or {@code null} for a
+     *         success.
+     */
+    public String getMessage() {
+        if (duplicateOf != null) {
+            return "duplicate of " + duplicateOf;
+        }
+        if (error == null) {
+            return null;
+        }
+        if (error instanceof ConversionException) {
+            return error.getMessage();
+        }
+        return error.toString();
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return the digest of the input in hex, or {@code null} if it was not
+     *         computed.
+     */
+    public String getSourceDigest() {
+        return sourceDigest;
+    }
+
+    /**
+     * @return the digest of the DICOM file in hex, or {@code null} if it was
+     *         not computed.
+     */
+    public String getOutputDigest() {
+        return outputDigest;
+    }
+
+    public String toString() {
+        if (isDuplicate()) {
+            return input + " = " + output;
+        }
+        return isSuccess() ? input + " -> " + output : input + ": "
+                + getMessage();
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.media.ApplicationProfile;
+import org.dcm4che2.media.BasicApplicationProfile;
+import org.dcm4che2.media.DicomDirWriter;
+import org.dcm4che2.media.FileSetInformation;
+
+/**
+ * Builds a DICOMDIR from the objects written to a file set.
+ * <p>
+ * {@link DicomDirWriter#addPatientRecord(DicomObject)} and its study and
+ * series counterparts look for an existing record by walking all sibling
+ * records, which makes a DICOMDIR of a whole cohort quadratic to build. This
+ * builder keeps the patient, study and series records it has seen in hash
+ * tables, keyed by Patient ID, Study Instance UID and Series Instance UID,
+ * and links new records directly to their parent. Instances already in the
+ * DICOMDIR, by SOP Instance UID, are not added twice.
+ * <p>
+ * The builder is thread safe, so that objects written in parallel can be
+ * added as they complete.
+ *
+ * @author afm
+ *
+ */
+public class DicomDirBuilder implements Closeable {
+
+    private final DicomDirWriter writer;
+
+    private final ApplicationProfile ap = new BasicApplicationProfile();
+
+    private final Map<String, DicomObject> patients = new HashMap<String, DicomObject>();
+
+    private final Map<String, DicomObject> studies = new HashMap<String, DicomObject>();
+
+    private final Map<String, DicomObject> series = new HashMap<String, DicomObject>();
+
+    private final Set<String> instances = new HashSet<String>();
+
+    /**
+     * Create a new, empty DICOMDIR.
+     *
+     * @param file
+     *            The DICOMDIR file. Referenced files must be in its directory
+     *            or below.
+     */
+    public DicomDirBuilder(File file) throws IOException {
+        FileSetInformation fsinfo = new FileSetInformation();
+        fsinfo.init();
+        writer = new DicomDirWriter(file, fsinfo);
+    }
+
+    /**
+     * Add records to an open DICOMDIR.
+     * <p>
+     * The records the DICOMDIR already contains are indexed first, with a
+     * single walk over the file.
+     *
+     * @param writer
+     *            The open DICOMDIR.
+     */
+    public DicomDirBuilder(DicomDirWriter writer) throws IOException {
+        this.writer = writer;
+        for (DicomObject pat = writer.findFirstRootRecord(); pat != null; pat = writer
+                .findNextSiblingRecord(pat)) {
+            putIfKey(patients, pat.getString(Tag.PatientID), pat);
+            for (DicomObject sty = writer.findFirstChildRecord(pat); sty != null; sty = writer
+                    .findNextSiblingRecord(sty)) {
+                putIfKey(studies, sty.getString(Tag.StudyInstanceUID), sty);
+                for (DicomObject ser = writer.findFirstChildRecord(sty); ser != null; ser = writer
+                        .findNextSiblingRecord(ser)) {
+                    putIfKey(series, ser.getString(Tag.SeriesInstanceUID), ser);
+                    for (DicomObject inst = writer.findFirstChildRecord(ser); inst != null; inst = writer
+                            .findNextSiblingRecord(inst)) {
+                        String iuid = inst
+                                .getString(Tag.ReferencedSOPInstanceUIDInFile);
+                        if (iuid != null) {
+                            instances.add(iuid);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void putIfKey(Map<String, DicomObject> index, String key,
+            DicomObject rec) {
+        if (key != null) {
+            index.put(key, rec);
+        }
+    }
+
+    /**
+     * Add an object written to the file set.
+     *
+     * @param dcmobj
+     *            The object as it was written, including its file meta
+     *            information.
+     * @param f
+     *            The file the object was written to.
+     * @return {@code false} if the instance was already in the DICOMDIR.
+     */
+    public synchronized boolean add(DicomObject dcmobj, File f)
+            throws IOException {
+        String iuid = dcmobj.getString(Tag.SOPInstanceUID);
+        if (iuid != null && !instances.add(iuid)) {
+            return false;
+        }
+
+        String pid = dcmobj.getString(Tag.PatientID);
+        DicomObject patrec = patients.get(pid);
+        if (patrec == null) {
+            patrec = ap.makePatientDirectoryRecord(dcmobj);
+            writer.addRootRecord(patrec);
+            putIfKey(patients, pid, patrec);
+        }
+
+        String suid = dcmobj.getString(Tag.StudyInstanceUID);
+        DicomObject styrec = studies.get(suid);
+        if (styrec == null) {
+            styrec = ap.makeStudyDirectoryRecord(dcmobj);
+            writer.addChildRecord(patrec, styrec);
+            putIfKey(studies, suid, styrec);
+        }
+
+        String seuid = dcmobj.getString(Tag.SeriesInstanceUID);
+        DicomObject serrec = series.get(seuid);
+        if (serrec == null) {
+            serrec = ap.makeSeriesDirectoryRecord(dcmobj);
+            writer.addChildRecord(styrec, serrec);
+            putIfKey(series, seuid, serrec);
+        }
+
+        writer.addChildRecord(serrec,
+                ap.makeInstanceDirectoryRecord(dcmobj, writer.toFileID(f)));
+        return true;
+    }
+
+    /**
+     * Write the pending records and close the DICOMDIR.
+     */
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
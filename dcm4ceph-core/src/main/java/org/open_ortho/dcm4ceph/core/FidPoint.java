@@ -22,6 +22,11 @@ public class FidPoint {
         this.y = (float) y;
     }
 
+    public FidPoint(float x, float y) {
+        this.x = x;
+        this.y = y;
+    }
+
     /*
      * Constructor from string
      * @param sxy "x,y" "1.0;2.0" string representing coords
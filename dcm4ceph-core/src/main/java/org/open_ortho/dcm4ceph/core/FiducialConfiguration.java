@@ -0,0 +1,179 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.core;
+
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.open_ortho.dcm4ceph.util.FileUtils;
+import org.open_ortho.dcm4ceph.util.Log;
+
+/**
+ * The distances, resolution and labels of a fiducial set, parsed once.
+ * <p>
+ * The defaults are read from {@code fiducial_defaults.properties} the first
+ * time they are needed, and shared by all fiducial sets. A configuration is
+ * immutable: the properties of a fiducial set give a new configuration with
+ * {@link #with(Properties)}, which only parses those properties.
+ * <p>
+ * The coordinates of the four corners depend only on the distances in pixels,
+ * and are computed once for each set of distances.
+ *
+ * @author afm
+ *
+ */
+final class FiducialConfiguration {
+
+    private static final String DEFAULTS = "fiducial_defaults.properties";
+
+    private static final double MM_PER_INCH = 25.4;
+
+    private static final int DEFAULT_DPI = 300;
+
+    /**
+     * Distinct distance sets whose coordinates are kept. A cohort measured on
+     * one template needs a single entry.
+     */
+    private static final int MAX_CACHED_LAYOUTS = 4096;
+
+    private static final ConcurrentMap<Layout, float[]> layouts = new ConcurrentHashMap<Layout, float[]>();
+
+    private static class DefaultsHolder {
+        static final FiducialConfiguration DEFAULTS_INSTANCE = new FiducialConfiguration()
+                .with(FileUtils.loadProperties(DEFAULTS));
+    }
+
+    final float d12, d23, d34, d14, d13, d24;
+
+    final int dpi;
+
+    final String label, descriptor;
+
+    private FiducialConfiguration() {
+        this(Float.NaN, Float.NaN, Float.NaN, Float.NaN, Float.NaN,
+                Float.NaN, DEFAULT_DPI, null, null);
+    }
+
+    private FiducialConfiguration(float d12, float d23, float d34, float d14,
+            float d13, float d24, int dpi, String label, String descriptor) {
+        this.d12 = d12;
+        this.d23 = d23;
+        this.d34 = d34;
+        this.d14 = d14;
+        this.d13 = d13;
+        this.d24 = d24;
+        this.dpi = dpi;
+        this.label = label;
+        this.descriptor = descriptor;
+    }
+
+    /**
+     * @return the configuration of {@code fiducial_defaults.properties}.
+     */
+    static FiducialConfiguration getDefaults() {
+        return DefaultsHolder.DEFAULTS_INSTANCE;
+    }
+
+    /**
+     * @param props
+     *            Properties that replace some of this configuration:
+     *            {@code d12}, {@code d23}, {@code d34}, {@code d14} (or
+     *            {@code d41}), {@code d13}, {@code d24}, {@code dpi},
+     *            {@code label} and {@code descriptor}.
+     * @return a configuration with the passed properties, or this one if
+     *         there are none.
+     * @throws NumberFormatException
+     *             if a distance or the resolution is not a number
+     */
+    FiducialConfiguration with(Properties props) {
+        if (props == null || props.isEmpty()) {
+            return this;
+        }
+        String d14s = props.getProperty("d14", props.getProperty("d41"));
+        String dpis = props.getProperty("dpi");
+        return new FiducialConfiguration(
+                parse(props, "d12", d12), parse(props, "d23", d23),
+                parse(props, "d34", d34),
+                d14s == null ? d14 : Float.parseFloat(d14s),
+                parse(props, "d13", d13), parse(props, "d24", d24),
+                dpis == null ? dpi : Integer.parseInt(dpis.trim()),
+                props.getProperty("label", label),
+                props.getProperty("descriptor", descriptor));
+    }
+
+    private static float parse(Properties props, String key, float value) {
+        String s = props.getProperty(key);
+        return s == null ? value : Float.parseFloat(s);
+    }
+
+    int getPixelDistance(float mmDistance) {
+        return (int) Math.round(mmDistance * dpi / MM_PER_INCH);
+    }
+
+    /**
+     * Compute the corners from the six distances, with the closed form of
+     * {@link FiducialSolver#trilaterate}, rounded to whole pixels.
+     * <p>
+     * F4 is on the origin and F3 on the x axis. The result is shared: it must
+     * not be changed.
+     *
+     * @return x and y of F1, F2, F3 and F4, in pixels.
+     */
+    float[] coordinates() {
+        Layout key = new Layout(getPixelDistance(d12),
+                getPixelDistance(d23), getPixelDistance(d34),
+                getPixelDistance(d14), getPixelDistance(d13),
+                getPixelDistance(d24));
+        float[] c = layouts.get(key);
+        if (c == null) {
+            c = key.solve();
+            if (layouts.size() < MAX_CACHED_LAYOUTS) {
+                layouts.putIfAbsent(key, c);
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Six distances in pixels.
+     */
+    private static final class Layout {
+        private final int[] d;
+
+        Layout(int... d) {
+            this.d = d;
+        }
+
+        float[] solve() {
+            double[] p = new double[FiducialSolver.COORDINATES];
+            FiducialSolver.trilaterate(new double[] { d[0], d[1], d[2],
+                    d[3], d[4], d[5] }, p);
+            float[] c = new float[FiducialSolver.COORDINATES];
+            for (int i = 0; i < c.length; i++) {
+                c[i] = Math.round(p[i]);
+            }
+            Log.info("Fiducials F1: (" + c[0] + ", " + c[1] + ") F2: ("
+                    + c[2] + ", " + c[3] + ") F3: (" + c[4] + ", " + c[5]
+                    + ") F4: (" + c[6] + ", " + c[7] + ")");
+            return c;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof Layout && Arrays.equals(d, ((Layout) o).d);
+        }
+
+        public int hashCode() {
+            return Arrays.hashCode(d);
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.core;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the corners of many four-corner fiducial sets from their six
+ * measured distances.
+ * <p>
+ * The sets are passed as one {@code float[]} of six distances per set, in the
+ * order d12, d23, d34, d14, d13, d24, where 1 is top left, 2 top right, 3
+ * bottom right and 4 bottom left. The corners are returned as one
+ * {@code float[]} of eight coordinates per set, x and y of F1, F2, F3 and F4,
+ * in the unit of the distances. F4 is on the origin and F3 on the x axis.
+ * <p>
+ * The four corners have five unknown coordinates, and six distances are
+ * measured, so the distances usually disagree by a little. The closed form
+ * solution of {@link SBFiducialSet} uses five distances and only checks d12
+ * to choose the side of F1; here it is only the starting point of a
+ * Gauss-Newton least squares fit to all six. The root mean square of the
+ * remaining distance errors is reported for each set, and shows sets that
+ * were measured or typed wrong.
+ * <p>
+ * Nothing is allocated per set, and {@link #solveParallel} splits large
+ * cohorts into chunks solved on the common fork join pool.
+ *
+ * @author afm
+ *
+ */
+public class FiducialSolver {
+
+    /**
+     * Distances per set.
+     */
+    public static final int DISTANCES = 6;
+
+    /**
+     * Coordinates per set.
+     */
+    public static final int COORDINATES = 8;
+
+    /**
+     * Sets solved by one task of {@link #solveParallel}.
+     */
+    private static final int CHUNK = 1024;
+
+    private static final int MAX_ITERATIONS = 20;
+
+    /**
+     * The corners of each measured pair, in the order of the distances.
+     */
+    private static final int[] FROM = { 0, 1, 2, 0, 0, 1 };
+
+    private static final int[] TO = { 1, 2, 3, 3, 2, 3 };
+
+    private FiducialSolver() {
+    }
+
+    /**
+     * Solve every set on the calling thread.
+     *
+     * @param distances
+     *            Six distances per set.
+     * @return eight coordinates per set.
+     */
+    public static float[] solve(float[] distances) {
+        float[] coordinates = new float[distances.length / DISTANCES
+                * COORDINATES];
+        solve(distances, coordinates, null, 0, distances.length / DISTANCES);
+        return coordinates;
+    }
+
+    /**
+     * Solve a range of sets on the calling thread.
+     *
+     * @param distances
+     *            Six distances per set.
+     * @param coordinates
+     *            Receives eight coordinates per set.
+     * @param residuals
+     *            Receives the root mean square distance error of each set, or
+     *            {@code null}.
+     * @param from
+     *            Index of the first set to solve.
+     * @param to
+     *            Index after the last set to solve.
+     */
+    public static void solve(float[] distances, float[] coordinates,
+            float[] residuals, int from, int to) {
+        double[] d = new double[DISTANCES];
+        double[] p = new double[COORDINATES];
+        double[] jtj = new double[25];
+        double[] jtr = new double[5];
+        double[] j = new double[5];
+        for (int n = from; n < to; n++) {
+            for (int k = 0; k < DISTANCES; k++) {
+                d[k] = distances[n * DISTANCES + k];
+            }
+            trilaterate(d, p);
+            double rms = fit(d, p, jtj, jtr, j);
+            for (int k = 0; k < COORDINATES; k++) {
+                coordinates[n * COORDINATES + k] = (float) p[k];
+            }
+            if (residuals != null) {
+                residuals[n] = (float) rms;
+            }
+        }
+    }
+
+    /**
+     * Solve all sets, in parallel.
+     *
+     * @param distances
+     *            Six distances per set.
+     * @param coordinates
+     *            Receives eight coordinates per set.
+     * @param residuals
+     *            Receives the root mean square distance error of each set, or
+     *            {@code null}.
+     */
+    public static void solveParallel(final float[] distances,
+            final float[] coordinates, final float[] residuals) {
+        final int sets = distances.length / DISTANCES;
+        if (coordinates.length < sets * COORDINATES
+                || residuals != null && residuals.length < sets) {
+            throw new IllegalArgumentException("output arrays are too short");
+        }
+        int chunks = (sets + CHUNK - 1) / CHUNK;
+        IntStream.range(0, chunks).parallel().forEach(
+                c -> solve(distances, coordinates, residuals, c * CHUNK, Math
+                        .min(sets, (c + 1) * CHUNK)));
+    }
+
+    /**
+     * The closed form solution: F2 from d34, d24 and d23, F1 from d34, d14
+     * and d13, on the side of F4-F3 that matches d12 best.
+     *
+     * @param d
+     *            d12, d23, d34, d14, d13, d24.
+     * @param p
+     *            Receives x and y of F1, F2, F3 and F4.
+     */
+    static void trilaterate(double[] d, double[] p) {
+        double d12 = d[0], d23 = d[1], d34 = d[2], d14 = d[3], d13 = d[4], d24 = d[5];
+
+        double f2x = (d34 * d34 + d24 * d24 - d23 * d23) / (2 * d34);
+        double f2y = Math.sqrt(Math.max(0, d24 * d24 - f2x * f2x));
+
+        double f1x = (d34 * d34 + d14 * d14 - d13 * d13) / (2 * d34);
+        double f1y = Math.sqrt(Math.max(0, d14 * d14 - f1x * f1x));
+
+        // Choose the sign of f1 by comparing the four possible f1-f2
+        // distances with d12.
+        double best = Double.MAX_VALUE;
+        double x1 = f1x, y1 = f1y;
+        for (int i = 0; i < 4; i++) {
+            double x = (i & 1) == 0 ? f1x : -f1x;
+            double y = (i & 2) == 0 ? f1y : -f1y;
+            double diff = Math.abs(Math.sqrt((x - f2x) * (x - f2x)
+                    + (y - f2y) * (y - f2y)) - d12);
+            if (diff < best) {
+                best = diff;
+                x1 = x;
+                y1 = y;
+            }
+        }
+        p[0] = x1;
+        p[1] = y1;
+        p[2] = f2x;
+        p[3] = f2y;
+        p[4] = d34;
+        p[5] = 0;
+        p[6] = 0;
+        p[7] = 0;
+    }
+
+    /**
+     * Refine the corners with Gauss-Newton steps on the five free
+     * coordinates x1, y1, x2, y2 and x3.
+     *
+     * @return the root mean square distance error.
+     */
+    private static double fit(double[] d, double[] p, double[] jtj,
+            double[] jtr, double[] j) {
+        double scale = d[2];
+        for (int it = 0; it < MAX_ITERATIONS; it++) {
+            Arrays.fill(jtj, 0);
+            Arrays.fill(jtr, 0);
+            for (int k = 0; k < DISTANCES; k++) {
+                int a = FROM[k], b = TO[k];
+                double dx = p[2 * a] - p[2 * b];
+                double dy = p[2 * a + 1] - p[2 * b + 1];
+                double len = Math.sqrt(dx * dx + dy * dy);
+                if (len == 0) {
+                    continue;
+                }
+                double r = len - d[k];
+                Arrays.fill(j, 0);
+                addGradient(j, a, dx / len, dy / len);
+                addGradient(j, b, -dx / len, -dy / len);
+                for (int u = 0; u < 5; u++) {
+                    jtr[u] += j[u] * r;
+                    for (int v = 0; v < 5; v++) {
+                        jtj[u * 5 + v] += j[u] * j[v];
+                    }
+                }
+            }
+            if (!solve5(jtj, jtr)) {
+                break;
+            }
+            // jtr now holds the step.
+            p[0] -= jtr[0];
+            p[1] -= jtr[1];
+            p[2] -= jtr[2];
+            p[3] -= jtr[3];
+            p[4] -= jtr[4];
+            double step = 0;
+            for (int u = 0; u < 5; u++) {
+                step = Math.max(step, Math.abs(jtr[u]));
+            }
+            if (step <= 1e-9 * scale) {
+                break;
+            }
+        }
+        double sum = 0;
+        for (int k = 0; k < DISTANCES; k++) {
+            int a = FROM[k], b = TO[k];
+            double dx = p[2 * a] - p[2 * b];
+            double dy = p[2 * a + 1] - p[2 * b + 1];
+            double r = Math.sqrt(dx * dx + dy * dy) - d[k];
+            sum += r * r;
+        }
+        return Math.sqrt(sum / DISTANCES);
+    }
+
+    /**
+     * Add the derivatives of a distance with respect to a corner to the
+     * Jacobian row. F4 is fixed, and F3 only moves along x.
+     */
+    private static void addGradient(double[] j, int corner, double gx,
+            double gy) {
+        switch (corner) {
+        case 0:
+            j[0] += gx;
+            j[1] += gy;
+            break;
+        case 1:
+            j[2] += gx;
+            j[3] += gy;
+            break;
+        case 2:
+            j[4] += gx;
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Solve the 5 by 5 system a x = b by Gaussian elimination with partial
+     * pivoting. a is destroyed, and b receives x.
+     *
+     * @return false if the system is singular.
+     */
+    private static boolean solve5(double[] a, double[] b) {
+        for (int c = 0; c < 5; c++) {
+            int pivot = c;
+            for (int r = c + 1; r < 5; r++) {
+                if (Math.abs(a[r * 5 + c]) > Math.abs(a[pivot * 5 + c])) {
+                    pivot = r;
+                }
+            }
+            if (Math.abs(a[pivot * 5 + c]) < 1e-12) {
+                return false;
+            }
+            if (pivot != c) {
+                for (int k = 0; k < 5; k++) {
+                    double t = a[c * 5 + k];
+                    a[c * 5 + k] = a[pivot * 5 + k];
+                    a[pivot * 5 + k] = t;
+                }
+                double t = b[c];
+                b[c] = b[pivot];
+                b[pivot] = t;
+            }
+            for (int r = c + 1; r < 5; r++) {
+                double f = a[r * 5 + c] / a[c * 5 + c];
+                for (int k = c; k < 5; k++) {
+                    a[r * 5 + k] -= f * a[c * 5 + k];
+                }
+                b[r] -= f * b[c];
+            }
+        }
+        for (int c = 4; c >= 0; c--) {
+            double s = b[c];
+            for (int k = c + 1; k < 5; k++) {
+                s -= a[c * 5 + k] * b[k];
+            }
+            b[c] = s / a[c * 5 + c];
+        }
+        return true;
+    }
+}
@@ -0,0 +1,308 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.core;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.open_ortho.dcm4ceph.util.FileUtils;
+
+/**
+ * The JPEG stream of a cephalogram.
+ * <p>
+ * The image is either a region of a file, whose header is read into a small
+ * buffer and which is copied with {@link FileChannel#transferTo}, or a buffer
+ * in memory, for images that come from a stream.
+ *
+ * @author afm
+ *
+ */
+abstract class ImageSource implements Closeable {
+
+    /**
+     * Buffer size for streams of unknown length. It is doubled as needed.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Number of bytes first read from the start of a file for probing. If the
+     * JPEG header runs past it, e.g. because of large ICC or EXIF segments,
+     * the window is grown until it reaches the start of scan.
+     */
+    static final int HEADER_WINDOW = 256 * 1024;
+
+    /**
+     * Largest buffer that can be allocated.
+     */
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * @return the length of the JPEG stream in bytes.
+     */
+    abstract long size() throws IOException;
+
+    /**
+     * @return a buffer from the start of the JPEG stream, for probing its
+     *         header. It holds at least the marker segments up to the start
+     *         of scan, and may end before the stream does. Reading it does
+     *         not change this source.
+     */
+    abstract ByteBuffer header() throws IOException;
+
+    /**
+     * Write a part of the JPEG stream.
+     *
+     * @param position
+     *            Offset of the first byte to write, from the start of the JPEG
+     *            stream.
+     * @param count
+     *            Number of bytes to write.
+     */
+    abstract void transferTo(long position, long count, WritableByteChannel dst)
+            throws IOException;
+
+    public void close() throws IOException {
+    }
+
+    /**
+     * Open an image file. The file stays open until the source is closed.
+     */
+    static ImageSource open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+        return new FileSource(channel, 0, channel.size(), true);
+    }
+
+    /**
+     * Read an image from a channel.
+     * <p>
+     * A {@link FileChannel} is not read, but used from its current position
+     * on. Other channels are read into memory, up to their end if the length
+     * is not known.
+     *
+     * @param in
+     *            The channel. It is not closed.
+     * @param length
+     *            The length of the image, or -1 to read up to the end of the
+     *            channel.
+     */
+    static ImageSource read(ReadableByteChannel in, long length)
+            throws IOException {
+        if (in instanceof FileChannel) {
+            FileChannel channel = (FileChannel) in;
+            long position = channel.position();
+            return new FileSource(channel, position, length >= 0 ? length
+                    : channel.size() - position, false);
+        }
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Image of " + length
+                    + " bytes is too large to be held in memory");
+        }
+        ByteBuffer buf = ByteBuffer.allocate(length >= 0 ? (int) length
+                : INITIAL_BUFFER_SIZE);
+        while (true) {
+            if (!buf.hasRemaining()) {
+                if (length >= 0) {
+                    break;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+                buf.flip();
+                bigger.put(buf);
+                buf = bigger;
+            }
+            if (in.read(buf) < 0) {
+                break;
+            }
+        }
+        if (length >= 0 && buf.position() < length) {
+            throw new EOFException("Image ended after " + buf.position()
+                    + " of " + length + " bytes");
+        }
+        buf.flip();
+        return new BufferSource(buf);
+    }
+
+    /**
+     * A view of parts of this source, one after the other.
+     *
+     * @param ranges
+     *            Start and end offset of each part, in pairs.
+     */
+    ImageSource ranges(long[] ranges) {
+        return new RangeSource(this, ranges);
+    }
+
+    private static class FileSource extends ImageSource {
+        private final FileChannel channel;
+        private final long position;
+        private final long size;
+        private final boolean owned;
+        private ByteBuffer header;
+
+        FileSource(FileChannel channel, long position, long size,
+                boolean owned) {
+            this.channel = channel;
+            this.position = position;
+            this.size = size;
+            this.owned = owned;
+        }
+
+        long size() {
+            return size;
+        }
+
+        ByteBuffer header() throws IOException {
+            // Read rather than mapped, so that nothing keeps the file in use
+            // once it is closed.
+            if (header == null) {
+                ByteBuffer buf = ByteBuffer.allocate((int) Math.min(size,
+                        HEADER_WINDOW));
+                while (true) {
+                    boolean full = read(buf);
+                    buf.flip();
+                    if (!full || buf.limit() >= Math.min(size,
+                            MAX_BUFFER_SIZE)) {
+                        break;
+                    }
+                    long needed = JpegSegmentFilter.headerLength(buf);
+                    if (needed <= buf.limit()) {
+                        break;
+                    }
+                    // A segment runs past the window: grow it, at least
+                    // twice, so that many large segments take few reads.
+                    ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(
+                            Math.min(size, MAX_BUFFER_SIZE), Math.max(needed,
+                                    2L * buf.limit())));
+                    bigger.put(buf);
+                    buf = bigger;
+                }
+                header = buf;
+            }
+            return header.duplicate();
+        }
+
+        /**
+         * Fill a buffer from the file, at the offset of its position.
+         *
+         * @return {@code false} if the file ended first.
+         */
+        private boolean read(ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, position + buf.position()) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void transferTo(long position, long count, WritableByteChannel dst)
+                throws IOException {
+            FileUtils.transferFully(channel, this.position + position, count,
+                    dst);
+        }
+
+        public void close() throws IOException {
+            if (owned) {
+                channel.close();
+            }
+        }
+    }
+
+    private static class BufferSource extends ImageSource {
+        private final ByteBuffer data;
+
+        BufferSource(ByteBuffer data) {
+            this.data = data;
+        }
+
+        long size() {
+            return data.remaining();
+        }
+
+        ByteBuffer header() {
+            return data.duplicate();
+        }
+
+        void transferTo(long position, long count, WritableByteChannel dst)
+                throws IOException {
+            ByteBuffer src = data.duplicate();
+            src.position(data.position() + (int) position);
+            src.limit(src.position() + (int) count);
+            while (src.hasRemaining()) {
+                dst.write(src);
+            }
+        }
+    }
+
+    private static class RangeSource extends ImageSource {
+        private final ImageSource source;
+        private final long[] ranges;
+        private final long size;
+
+        RangeSource(ImageSource source, long[] ranges) {
+            this.source = source;
+            this.ranges = ranges;
+            long n = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                n += ranges[i + 1] - ranges[i];
+            }
+            this.size = n;
+        }
+
+        long size() {
+            return size;
+        }
+
+        ByteBuffer header() throws IOException {
+            // The parts that lie within the header of the underlying source.
+            ByteBuffer src = source.header();
+            int base = src.position();
+            int available = src.remaining();
+            ByteBuffer dst = ByteBuffer.allocate((int) Math.min(size,
+                    available));
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] >= available) {
+                    break;
+                }
+                int end = (int) Math.min(ranges[i + 1], available);
+                ByteBuffer part = src.duplicate();
+                part.limit(base + end);
+                part.position(base + (int) ranges[i]);
+                dst.put(part);
+            }
+            dst.flip();
+            return dst;
+        }
+
+        void transferTo(long position, long count, WritableByteChannel dst)
+                throws IOException {
+            long offset = 0;
+            for (int i = 0; i < ranges.length && count > 0; i += 2) {
+                long length = ranges[i + 1] - ranges[i];
+                if (position < offset + length) {
+                    long skip = position - offset;
+                    long n = Math.min(length - skip, count);
+                    source.transferTo(ranges[i] + skip, n, dst);
+                    position += n;
+                    count -= n;
+                }
+                offset += length;
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Selects marker segments to leave out of a JPEG stream.
+ * <p>
+ * Scanners often add large EXIF, ICC and vendor APPn segments and comments
+ * to their JPEG files, which the DICOM header makes redundant. The segments
+ * before the start of scan are walked without decoding anything, and the
+ * selected ones are skipped when the JPEG stream is copied into the pixel
+ * data. Only application segments and comments can be stripped; the tables
+ * and frame headers needed for decoding are always kept, and the entropy
+ * coded data is never changed.
+ *
+ * @author afm
+ *
+ */
+public class JpegSegmentFilter {
+
+    private static final int SOI = 0xD8;
+
+    private static final int EOI = 0xD9;
+
+    private static final int SOS = 0xDA;
+
+    private static final int TEM = 0x01;
+
+    private static final int APP0 = 0xE0;
+
+    private static final int APP2 = 0xE2;
+
+    private static final int APP15 = 0xEF;
+
+    private static final int COM = 0xFE;
+
+    private static final byte[] ICC_PROFILE = "ICC_PROFILE\0"
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * Longest identifier of an application segment that is reported.
+     */
+    private static final int MAX_IDENTIFIER = 40;
+
+    /**
+     * Metadata segments: APP1 to APP13, APP15 and comments. APP0 (JFIF) and
+     * APP14 (Adobe), which can matter for decoding, are kept.
+     */
+    public static final JpegSegmentFilter METADATA = parse("APP1-APP13,APP15,COM");
+
+    private final boolean[] strip = new boolean[256];
+
+    private JpegSegmentFilter() {
+    }
+
+    /**
+     * Parse a list of markers to strip.
+     * <p>
+     * The list is separated by commas. Each entry is {@code COM}, an
+     * application segment such as {@code APP1}, a range of them such as
+     * {@code APP1-APP15}, or one of these markers in hex such as
+     * {@code FFE2}.
+     *
+     * @param spec
+     *            The markers to strip.
+     * @throws IllegalArgumentException
+     *             if an entry cannot be parsed, or is not an application
+     *             segment or a comment
+     */
+    public static JpegSegmentFilter parse(String spec) {
+        JpegSegmentFilter filter = new JpegSegmentFilter();
+        for (String entry : spec.split(",")) {
+            entry = entry.trim().toUpperCase();
+            if (entry.length() == 0) {
+                continue;
+            }
+            int dash = entry.indexOf('-');
+            int from = toMarker(dash < 0 ? entry : entry.substring(0, dash));
+            int to = dash < 0 ? from : toMarker(entry.substring(dash + 1));
+            if (from > to) {
+                throw new IllegalArgumentException("Invalid range " + entry);
+            }
+            for (int m = from; m <= to; m++) {
+                filter.strip[m] = true;
+            }
+        }
+        return filter;
+    }
+
+    private static int toMarker(String s) {
+        if (s.equals("COM")) {
+            return COM;
+        }
+        try {
+            if (s.startsWith("APP")) {
+                int n = Integer.parseInt(s.substring(3));
+                if (n >= 0 && n <= 15) {
+                    return APP0 + n;
+                }
+            } else if (s.length() == 4 && s.startsWith("FF")) {
+                int marker = Integer.parseInt(s.substring(2), 16);
+                if (marker >= APP0 && marker <= APP15 || marker == COM) {
+                    return marker;
+                }
+                throw new IllegalArgumentException("JPEG marker " + s
+                        + " is needed for decoding, only APPn and COM"
+                        + " segments can be stripped");
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Unknown JPEG marker " + s);
+    }
+
+    /**
+     * @param marker
+     *            The second byte of a marker, e.g. 0xE1 for APP1.
+     * @return whether segments with this marker are stripped.
+     */
+    public boolean isStripped(int marker) {
+        return strip[marker & 0xff];
+    }
+
+    /**
+     * The parts of a JPEG stream that are kept, and what was left out.
+     */
+    static class Segments {
+        /**
+         * Start and end offset of each kept range, in pairs.
+         */
+        long[] kept;
+
+        /**
+         * The text of the stripped comments.
+         */
+        final List<String> comments = new ArrayList<String>();
+
+        /**
+         * What was stripped: the marker, the identifier of an application
+         * segment and the length of each segment, e.g.
+         * {@code APP1 Exif 3000 bytes}.
+         */
+        final List<String> stripped = new ArrayList<String>();
+
+        /**
+         * The ICC profile of the image, if it was stripped whole.
+         */
+        byte[] iccProfile;
+
+        int strippedCount;
+
+        long strippedBytes;
+    }
+
+    /**
+     * Find the segments to strip.
+     *
+     * @param header
+     *            The JPEG stream, from its start to at least the start of
+     *            scan.
+     * @param size
+     *            The length of the whole JPEG stream.
+     * @return the ranges to keep, or {@code null} if the stream is not a JPEG
+     *         stream whose segments can be walked, in which case it is to be
+     *         copied as is.
+     */
+    Segments scan(ByteBuffer header, long size) {
+        int base = header.position();
+        int limit = header.limit();
+        if (limit - base < 2 || (header.get(base) & 0xff) != 0xFF
+                || (header.get(base + 1) & 0xff) != SOI) {
+            return null;
+        }
+        Segments segments = new Segments();
+        List<Long> kept = new ArrayList<Long>();
+        List<byte[]> iccChunks = new ArrayList<byte[]>();
+        long keepStart = 0;
+        int pos = base + 2;
+        while (true) {
+            if (pos + 2 > limit || (header.get(pos) & 0xff) != 0xFF) {
+                return null;
+            }
+            int marker = header.get(pos + 1) & 0xff;
+            if (marker == 0xFF) {
+                // fill byte
+                pos++;
+                continue;
+            }
+            if (marker == SOS || marker == EOI) {
+                break;
+            }
+            if (marker == TEM || (marker >= 0xD0 && marker <= 0xD7)) {
+                // markers without a length
+                pos += 2;
+                continue;
+            }
+            if (pos + 4 > limit) {
+                return null;
+            }
+            int len = (header.get(pos + 2) & 0xff) << 8
+                    | (header.get(pos + 3) & 0xff);
+            int end = pos + 2 + len;
+            if (len < 2 || end > limit) {
+                return null;
+            }
+            if (strip[marker]) {
+                if (pos - base > keepStart) {
+                    kept.add(keepStart);
+                    kept.add((long) (pos - base));
+                }
+                keepStart = end - base;
+                segments.strippedCount++;
+                segments.strippedBytes += end - pos;
+                byte[] data = new byte[len - 2];
+                ByteBuffer dup = header.duplicate();
+                dup.position(pos + 4);
+                dup.get(data);
+                if (marker == COM) {
+                    segments.comments.add(new String(data,
+                            StandardCharsets.ISO_8859_1).trim());
+                    segments.stripped.add("COM " + data.length + " bytes");
+                } else {
+                    String id = identifier(data);
+                    segments.stripped.add("APP" + (marker - APP0)
+                            + (id.length() > 0 ? " " + id : "") + " "
+                            + data.length + " bytes");
+                    if (marker == APP2 && startsWith(data, ICC_PROFILE)) {
+                        iccChunks.add(data);
+                    }
+                }
+            }
+            pos = end;
+        }
+        segments.iccProfile = joinIccChunks(iccChunks);
+        kept.add(keepStart);
+        kept.add(size);
+        segments.kept = new long[kept.size()];
+        for (int i = 0; i < segments.kept.length; i++) {
+            segments.kept[i] = kept.get(i);
+        }
+        return segments;
+    }
+
+    /**
+     * @return the zero terminated ASCII identifier at the start of an
+     *         application segment, or an empty string if there is none.
+     */
+    private static String identifier(byte[] data) {
+        int n = 0;
+        while (n < data.length && n < MAX_IDENTIFIER && data[n] >= 0x20
+                && data[n] < 0x7F) {
+            n++;
+        }
+        if (n == data.length || data[n] != 0) {
+            return "";
+        }
+        return new String(data, 0, n, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find how much of a JPEG stream has to be read to walk its marker
+     * segments up to the start of scan.
+     *
+     * @param header
+     *            The start of the JPEG stream, from its position to its
+     *            limit.
+     * @return the length of the header up to and including the start of
+     *         scan marker, which is larger than the buffer if a segment runs
+     *         past its end, or 0 if the buffer does not hold a JPEG stream
+     *         whose segments can be walked.
+     */
+    static long headerLength(ByteBuffer header) {
+        int base = header.position();
+        long limit = header.limit() - base;
+        if (limit < 2 || (header.get(base) & 0xff) != 0xFF
+                || (header.get(base + 1) & 0xff) != SOI) {
+            return 0;
+        }
+        long pos = 2;
+        while (true) {
+            if (pos + 4 > limit) {
+                return pos + 4;
+            }
+            int p = base + (int) pos;
+            if ((header.get(p) & 0xff) != 0xFF) {
+                return 0;
+            }
+            int marker = header.get(p + 1) & 0xff;
+            if (marker == 0xFF) {
+                // fill byte
+                pos++;
+                continue;
+            }
+            if (marker == SOS || marker == EOI) {
+                return pos + 2;
+            }
+            if (marker == TEM || (marker >= 0xD0 && marker <= 0xD7)) {
+                // markers without a length
+                pos += 2;
+                continue;
+            }
+            int len = (header.get(p + 2) & 0xff) << 8
+                    | (header.get(p + 3) & 0xff);
+            if (len < 2) {
+                return 0;
+            }
+            pos += 2 + len;
+        }
+    }
+
+    /**
+     * Put together an ICC profile from its APP2 chunks. Each chunk holds its
+     * sequence number, from 1, and the number of chunks after the
+     * identifier.
+     *
+     * @return the profile, or {@code null} if there is none or chunks are
+     *         missing.
+     */
+    private static byte[] joinIccChunks(List<byte[]> chunks) {
+        int header = ICC_PROFILE.length + 2;
+        if (chunks.isEmpty()) {
+            return null;
+        }
+        byte[][] ordered = new byte[chunks.size()][];
+        int length = 0;
+        for (byte[] chunk : chunks) {
+            if (chunk.length < header) {
+                return null;
+            }
+            int seq = chunk[ICC_PROFILE.length] & 0xff;
+            int count = chunk[ICC_PROFILE.length + 1] & 0xff;
+            if (count != ordered.length || seq < 1 || seq > count
+                    || ordered[seq - 1] != null) {
+                return null;
+            }
+            ordered[seq - 1] = chunk;
+            length += chunk.length - header;
+        }
+        byte[] profile = new byte[length];
+        int pos = 0;
+        for (byte[] chunk : ordered) {
+            System.arraycopy(chunk, header, profile, pos, chunk.length - header);
+            pos += chunk.length - header;
+        }
+        return profile;
+    }
+}
@@ -0,0 +1,239 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.core;
+
+import java.util.Arrays;
+
+import org.dcm4che2.iod.module.spatial.GraphicCoordinatesData;
+
+/**
+ * A sequence of 2D points, such as fiducials or cephalometric landmarks,
+ * packed in one {@code float[]}.
+ * <p>
+ * The coordinates are stored as x0, y0, x1, y1, ..., which is the layout of
+ * Graphic Data (0070,0022), so that points can be written into a
+ * {@link GraphicCoordinatesData} without converting them. A point array costs
+ * 8 bytes per point, instead of an object per point.
+ * <p>
+ * A {@linkplain #view(int, int) view} is a range of points of another array
+ * that shares its storage: changes to either are seen by both. Transforms
+ * apply to every point of the array or view in one loop.
+ *
+ * @author afm
+ *
+ */
+public final class PointArray {
+
+    private final float[] data;
+
+    private final int offset;
+
+    private final int size;
+
+    /**
+     * Create an array of points on the origin.
+     *
+     * @param size
+     *            The number of points.
+     */
+    public PointArray(int size) {
+        this(new float[2 * size], 0, size);
+    }
+
+    private PointArray(float[] data, int offset, int size) {
+        this.data = data;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    /**
+     * Use an array of coordinates as points, without copying it.
+     *
+     * @param xy
+     *            x and y of each point. Its length must be even.
+     */
+    public static PointArray wrap(float[] xy) {
+        if (xy.length % 2 != 0) {
+            throw new IllegalArgumentException("odd number of coordinates");
+        }
+        return new PointArray(xy, 0, xy.length / 2);
+    }
+
+    /**
+     * Use a range of an array of coordinates as points, without copying it.
+     *
+     * @param xy
+     *            x and y of each point.
+     * @param offset
+     *            Index in xy of the x of the first point.
+     * @param size
+     *            The number of points.
+     */
+    public static PointArray wrap(float[] xy, int offset, int size) {
+        if (offset < 0 || size < 0 || offset + 2 * size > xy.length) {
+            throw new IndexOutOfBoundsException("offset " + offset
+                    + ", size " + size + ", length " + xy.length);
+        }
+        return new PointArray(xy, offset, size);
+    }
+
+    /**
+     * @return the number of points.
+     */
+    public int size() {
+        return size;
+    }
+
+    public float getX(int i) {
+        return data[index(i)];
+    }
+
+    public float getY(int i) {
+        return data[index(i) + 1];
+    }
+
+    public void set(int i, float x, float y) {
+        int k = index(i);
+        data[k] = x;
+        data[k + 1] = y;
+    }
+
+    private int index(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("point " + i + " of " + size);
+        }
+        return offset + 2 * i;
+    }
+
+    /**
+     * A range of these points, sharing their storage.
+     *
+     * @param from
+     *            Index of the first point.
+     * @param to
+     *            Index after the last point.
+     */
+    public PointArray view(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("view " + from + "-" + to
+                    + " of " + size);
+        }
+        return new PointArray(data, offset + 2 * from, to - from);
+    }
+
+    /**
+     * Move every point.
+     */
+    public PointArray translate(float dx, float dy) {
+        for (int k = offset, end = offset + 2 * size; k < end; k += 2) {
+            data[k] += dx;
+            data[k + 1] += dy;
+        }
+        return this;
+    }
+
+    /**
+     * Scale every point about the origin, e.g. from pixels to mm with the
+     * pixel spacing.
+     */
+    public PointArray scale(float sx, float sy) {
+        for (int k = offset, end = offset + 2 * size; k < end; k += 2) {
+            data[k] *= sx;
+            data[k + 1] *= sy;
+        }
+        return this;
+    }
+
+    /**
+     * Apply an affine transform to every point: x' = a x + b y + tx,
+     * y' = c x + d y + ty.
+     */
+    public PointArray transform(float a, float b, float c, float d, float tx,
+            float ty) {
+        for (int k = offset, end = offset + 2 * size; k < end; k += 2) {
+            float x = data[k];
+            float y = data[k + 1];
+            data[k] = a * x + b * y + tx;
+            data[k + 1] = c * x + d * y + ty;
+        }
+        return this;
+    }
+
+    /**
+     * Copy points from another array.
+     *
+     * @param src
+     *            The points to copy. Must have the size of this array.
+     */
+    public PointArray copyFrom(PointArray src) {
+        if (src.size != size) {
+            throw new IllegalArgumentException("size " + src.size + " != "
+                    + size);
+        }
+        System.arraycopy(src.data, src.offset, data, offset, 2 * size);
+        return this;
+    }
+
+    /**
+     * @return the coordinates, x and y of each point. The backing array if
+     *         this array covers all of it, a copy otherwise.
+     */
+    public float[] toFloatArray() {
+        if (offset == 0 && data.length == 2 * size) {
+            return data;
+        }
+        return Arrays.copyOfRange(data, offset, offset + 2 * size);
+    }
+
+    /**
+     * Set these points as the Graphic Data of a graphic.
+     * <p>
+     * If this array covers all of its backing array, the graphic gets the
+     * backing array itself, and later changes to the points change the
+     * graphic. A view is copied.
+     *
+     * @param graphic
+     *            The graphic. With more than one point, its Graphic Type
+     *            must be set by the caller, e.g. to POLYLINE or MULTIPOINT.
+     */
+    public void writeTo(GraphicCoordinatesData graphic) {
+        graphic.setGraphicData(toFloatArray());
+    }
+
+    /**
+     * Set one point as the Graphic Data of a graphic, e.g. a fiducial.
+     * <p>
+     * Unlike {@code view(index, index + 1).writeTo(graphic)}, no view is
+     * created: the coordinates are read from the backing array into the two
+     * floats the graphic keeps.
+     *
+     * @param index
+     *            The point.
+     * @param graphic
+     *            The graphic.
+     */
+    public void writeTo(int index, GraphicCoordinatesData graphic) {
+        int k = index(index);
+        graphic.setGraphicData(new float[] { data[k], data[k + 1] });
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append('(').append(getX(i)).append(", ").append(getY(i))
+                    .append(')');
+        }
+        return sb.append(']').toString();
+    }
+}
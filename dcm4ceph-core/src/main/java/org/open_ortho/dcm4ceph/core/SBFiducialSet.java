@@ -16,10 +16,14 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.Date;
 import java.util.Properties;
 
 import org.open_ortho.dcm4ceph.util.DcmUtils;
+import org.open_ortho.dcm4ceph.util.DigestUtils;
 import org.open_ortho.dcm4ceph.util.FileUtils;
 import org.dcm4che2.data.BasicDicomObject;
 import org.dcm4che2.data.Tag;
@@ -35,7 +39,6 @@ import org.dcm4che2.iod.validation.ValidationContext;
 import org.dcm4che2.iod.validation.ValidationResult;
 import org.dcm4che2.iod.value.Modality;
 import org.dcm4che2.iod.value.ShapeType;
-import org.dcm4che2.util.UIDUtils;
 import org.open_ortho.dcm4ceph.util.Log;
 
 /**
@@ -55,13 +58,19 @@ public class SBFiducialSet extends SpatialFiducials {
 
     private final String transferSyntax = UID.ImplicitVRLittleEndian;
 
-    // mm per inch
-    private final double mmPerInch = 25.4;
-
     private File propertiesFile;
 
+    /**
+     * The properties of this set, which replace the defaults.
+     */
     private Properties fiducialProperties = new Properties();
 
+    /**
+     * The defaults with the properties of this set, or null until they are
+     * loaded.
+     */
+    private FiducialConfiguration configuration;
+
     /**
      * The Fiducial Identifier (0070,03100) and and Fiducial Description
      * (0070,031A) in an array.
@@ -86,7 +95,14 @@ public class SBFiducialSet extends SpatialFiducials {
      */
     public final String BL[] = { "BL", "Bottom Left" };
 
-    private FidPoint f1, f2, f3, f4;
+    /**
+     * The top left, top right, bottom right and bottom left points, in the
+     * order of {@link #TL}, {@link #TR}, {@link #BR} and {@link #BL}. A point
+     * that is not set is NaN.
+     */
+    private final PointArray corners = PointArray.wrap(new float[] {
+            Float.NaN, Float.NaN, Float.NaN, Float.NaN, Float.NaN, Float.NaN,
+            Float.NaN, Float.NaN });
 
     private float d12, d23, d34, d14, d13, d24;
 
@@ -181,10 +197,10 @@ public class SBFiducialSet extends SpatialFiducials {
     public void init() {
         super.init();
 
-        fiducialProperties = loadDefaults();
+        fiducialProperties = new Properties();
 
         getSopCommonModule().setSOPClassUID(UID.SpatialFiducialsStorage);
-        getSopCommonModule().setSOPInstanceUID(UIDUtils.createUID());
+        getSopCommonModule().setSOPInstanceUID(DcmUtils.createUID());
 
         getSpatialFiducialsSeriesModule().setModality(Modality.FID);
 
@@ -228,7 +244,7 @@ public class SBFiducialSet extends SpatialFiducials {
      * @param p point
      */
     public void setF1(FidPoint p) {
-        this.f1 = p;
+        setCorner(0, p);
     }
 
     /**
@@ -237,7 +253,7 @@ public class SBFiducialSet extends SpatialFiducials {
      * @param p point
      */
     public void setF2(FidPoint p) {
-        this.f2 = p;
+        setCorner(1, p);
     }
 
     /**
@@ -246,7 +262,7 @@ public class SBFiducialSet extends SpatialFiducials {
      * @param p point
      */
     public void setF3(FidPoint p) {
-        this.f3 = p;
+        setCorner(2, p);
     }
 
     /**
@@ -255,35 +271,56 @@ public class SBFiducialSet extends SpatialFiducials {
      * @param p point
      */
     public void setF4(FidPoint p) {
-        this.f4 = p;
+        setCorner(3, p);
+    }
+
+    private void setCorner(int i, FidPoint p) {
+        if (p == null)
+            corners.set(i, Float.NaN, Float.NaN);
+        else
+            corners.set(i, p.x, p.y);
+    }
+
+    private FidPoint getCorner(int i) {
+        if (Float.isNaN(corners.getX(i)))
+            return null;
+        return new FidPoint(corners.getX(i), corners.getY(i));
     }
 
     /**
-     * @return Returns the f1.
+     * @return the four fiducial points, top left, top right, bottom right and
+     *         bottom left. Changes to them change this set.
+     */
+    public PointArray getCorners() {
+        return corners;
+    }
+
+    /**
+     * @return a copy of the f1, or {@code null} if it is not set.
      */
     public FidPoint getF1() {
-        return f1;
+        return getCorner(0);
     }
 
     /**
-     * @return Returns the f2.
+     * @return a copy of the f2, or {@code null} if it is not set.
      */
     public FidPoint getF2() {
-        return f2;
+        return getCorner(1);
     }
 
     /**
-     * @return Returns the f3.
+     * @return a copy of the f3, or {@code null} if it is not set.
      */
     public FidPoint getF3() {
-        return f3;
+        return getCorner(2);
     }
 
     /**
-     * @return Returns the f4.
+     * @return a copy of the f4, or {@code null} if it is not set.
      */
     public FidPoint getF4() {
-        return f4;
+        return getCorner(3);
     }
 
     /**
@@ -447,102 +484,40 @@ public class SBFiducialSet extends SpatialFiducials {
     /**
      * Computes 4 coordinates from 6 distances.
      * <p>
-     * The distances are read from the getters. This method needs to be
-     * execeuted after the distances from the properties file have been parse
-     * with {@link #loadProperties(Properties)}.
+     * The distances are those of the configuration loaded with
+     * {@link #loadProperties(Properties)}. The coordinates are computed once
+     * for each set of distances, and shared by all fiducial sets.
      * 
      */
     private void computeCoordinates() {
-        double f2x, f2y, f1x, f1y;
+        float[] c = configuration.coordinates();
         // Set the f4 on the origin
-        if (f4 == null)
-            setF4(new FidPoint(0, 0));
+        if (Float.isNaN(corners.getX(3)))
+            corners.set(3, c[6], c[7]);
 
         // Set the axis to be the line between f3 and f4.
-        if (f3 == null)
-            setF3(new FidPoint((int) getPixelDistance(d34), 0));
-
-        // f2
-        f2x = (Math.pow(getPixelDistance(d34), 2.0)
-                + Math.pow(getPixelDistance(d24), 2.0) - Math.pow(
-                getPixelDistance(d23), 2.0))
-                / (2 * getPixelDistance(d34));
-        f2y = Math.sqrt(Math.pow(getPixelDistance(d24), 2) - Math.pow(f2x, 2));
-        setF2(new FidPoint((int) Math.round(f2x), (int) Math.round(f2y)));
-
-        // f1 is the trickiest
-        f1x = (Math.pow(getPixelDistance(d34), 2.0)
-                + Math.pow(getPixelDistance(d14), 2.0) - Math.pow(
-                getPixelDistance(d13), 2.0))
-                / (2 * getPixelDistance(d34));
-        f1y = Math.sqrt(Math.pow(getPixelDistance(d14), 2) - Math.pow(f1x, 2));
-
-        // Find out the sign of f1 by comaring f1-f2 distance with d12
-
-        // Put in the array the differences between the four
-        // possible f1-f2 distances and d12.
-        double[] d12s = {
-                Math.abs(distance(f1x, f1y, f2x, f2y) - getPixelDistance(d12)),
-                Math.abs(distance(-f1x, f1y, f2x, f2y) - getPixelDistance(d12)),
-                Math.abs(distance(f1x, -f1y, f2x, f2y) - getPixelDistance(d12)),
-                Math
-                        .abs(distance(-f1x, -f1y, f2x, f2y)
-                                - getPixelDistance(d12)) };
-
-        // Then find out the smallest difference, and set that to be the
-        // fiducial coordinate.
-        int smallest = smallest(d12s);
-        if (smallest == 0)
-            setF1(new FidPoint((int) Math.round(f1x), (int) Math.round(f1y)));
-        else if (smallest == 1)
-            setF1(new FidPoint((int) Math.round(-f1x), (int) Math.round(f1y)));
-        else if (smallest == 2)
-            setF1(new FidPoint((int) Math.round(f1x), (int) Math.round(-f1y)));
-        else if (smallest == 3)
-            setF1(new FidPoint((int) Math.round(-f1x), (int) Math.round(-f1y)));
-
-        System.out.println("F1: (" + getF1().x + ", " + getF1().y + ")");
-        System.out.println("F2: (" + getF2().x + ", " + getF2().y + ")");
-        System.out.println("F3: (" + getF3().x + ", " + getF3().y + ")");
-        System.out.println("F4: (" + getF4().x + ", " + getF4().y + ")");
-
-    }
-
-    private int getPixelDistance(float mmDistance) {
-        return (int) Math.round(mmDistance * dpi / mmPerInch);
-    }
-
-    /**
-     * Return the index of the smallest value in the array.
-     * 
-     * @param vals
-     * @return
-     */
-    private int smallest(double[] vals) {
-        int smallest = 0;
-        for (int i = 0; i < vals.length; i++) {
-            if (vals[i] < vals[smallest])
-                smallest = i;
-        }
-        return smallest;
-    }
+        if (Float.isNaN(corners.getX(2)))
+            corners.set(2, c[4], c[5]);
 
-    private double distance(double Ax, double Ay, double Bx, double By) {
-        return Math.sqrt(Math.pow((Ax - Bx), 2) + Math.pow((Ay - By), 2));
+        corners.set(1, c[2], c[3]);
+        corners.set(0, c[0], c[1]);
     }
 
     private Fiducial makeFiducial(String[] type, ImageSOPInstanceReference sop) {
         Fiducial f = new Fiducial();
         GraphicCoordinatesData[] fidPointsArray = { new GraphicCoordinatesData() };
 
+        int i = -1;
         if (type[0].equals("TL"))
-            fidPointsArray[0].setGraphicData(getF1().getFloatArray());
+            i = 0;
         else if (type[0].equals("TR"))
-            fidPointsArray[0].setGraphicData(getF2().getFloatArray());
+            i = 1;
         else if (type[0].equals("BR"))
-            fidPointsArray[0].setGraphicData(getF3().getFloatArray());
+            i = 2;
         else if (type[0].equals("BL"))
-            fidPointsArray[0].setGraphicData(getF4().getFloatArray());
+            i = 3;
+        if (i >= 0)
+            corners.writeTo(i, fidPointsArray[0]);
 
         fidPointsArray[0].setReferencedImage(sop);
         f.setGraphicCoordinatesData(fidPointsArray);
@@ -566,34 +541,35 @@ public class SBFiducialSet extends SpatialFiducials {
         return sops;
     }
 
+    /**
+     * Set the distances, coordinates and labels of this set from the
+     * defaults, replaced by the passed properties.
+     * <p>
+     * The defaults are parsed once and shared; only the passed properties
+     * are parsed.
+     *
+     * @param fiducialsProperties
+     *            The properties of this set, or {@code null}.
+     */
     public void loadProperties(Properties fiducialsProperties) {
-        // first load defaults
-        Properties fidprop = loadDefaults();
-
-        // then load in all new configuration
-        if (fiducialsProperties != null)
-            fidprop.putAll(fiducialsProperties);
+        configuration = FiducialConfiguration.getDefaults().with(
+                fiducialsProperties);
 
-        setD12(Float.parseFloat(fidprop.getProperty("d12")));
-        setD23(Float.parseFloat(fidprop.getProperty("d23")));
-        setD34(Float.parseFloat(fidprop.getProperty("d34")));
-        setD14(Float.parseFloat(fidprop.getProperty("d14")));
-        setD13(Float.parseFloat(fidprop.getProperty("d13")));
-        setD24(Float.parseFloat(fidprop.getProperty("d24")));
-        setDpi(Integer.parseInt(fidprop.getProperty("dpi")));
+        setD12(configuration.d12);
+        setD23(configuration.d23);
+        setD34(configuration.d34);
+        setD14(configuration.d14);
+        setD13(configuration.d13);
+        setD24(configuration.d24);
+        setDpi(configuration.dpi);
 
         computeCoordinates();
 
-        setLabel(fidprop.getProperty("label"));
-        setDescriptor(fidprop.getProperty("descriptor"));
+        setLabel(configuration.label);
+        setDescriptor(configuration.descriptor);
 
     }
 
-    private Properties loadDefaults() {
-        return FileUtils.loadProperties(
-                "fiducial_defaults.properties");
-    }
-
     public File writeDCM() {
         return writeDCM(FileUtils.getDCMFile(propertiesFile));
     }
@@ -619,32 +595,13 @@ public class SBFiducialSet extends SpatialFiducials {
     }
 
     public File writeDCM(File dcmFile) {
-        // First prepare the dicom object.
-        prepare();
-
-        // Then verify it.
-        ValidationResult results = new ValidationResult();
-        validate(new ValidationContext(), results);
-
-        if (!results.isValid()) {
-            System.err.println("Dicom object did not pass validity tests.");
-            System.err.println(results.getInvalidValues().toString());
+        if (!prepareAndValidate()) {
             return null;
         }
 
-        try {
-            FileOutputStream fos = new FileOutputStream(dcmFile);
-            BufferedOutputStream bos = new BufferedOutputStream(fos);
-            DicomOutputStream dos = new DicomOutputStream(bos);
-
+        try (FileOutputStream fos = new FileOutputStream(dcmFile)) {
             Log.info("Writing to file " + dcmFile.getCanonicalPath());
-
-            dos.writeDicomFile(dcmobj);
-            // dos.writeHeader(Tag.PixelData, VR.OB, -1);
-            // dos.writeHeader(Tag.Item, null, 0);
-            // dos.writeHeader(Tag.Item, null, (jpgLen + 1) & ~1);
-            dos.writeHeader(Tag.SequenceDelimitationItem, null, 0);
-            dos.close();
+            write(fos);
         } catch (FileNotFoundException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -655,8 +612,72 @@ public class SBFiducialSet extends SpatialFiducials {
         return dcmFile;
     }
 
+    /**
+     * Write this FiducialSet in a DICOM .dcm file, and compute the digest of
+     * the file on the way.
+     * <p>
+     * The digest is updated from the bytes as they are written, so the file
+     * does not have to be read again.
+     *
+     * @param dcmFile
+     *            The output file.
+     * @param algorithm
+     *            The digest algorithm, such as {@code SHA-256}, or
+     *            {@code null} to write the file without a digest.
+     * @return the written file and its digest. A fiducial set has no source
+     *         image, so the result has no source digest.
+     * @throws ConversionException
+     *             if the object is not valid
+     */
+    public ConversionResult writeDCM(File dcmFile, String algorithm)
+            throws IOException {
+        long start = System.nanoTime();
+        MessageDigest digest = algorithm != null ? DigestUtils
+                .newDigest(algorithm) : null;
+        if (!prepareAndValidate()) {
+            throw new ConversionException(propertiesFile,
+                    "fiducial set did not pass validity tests");
+        }
+        try (FileOutputStream fos = new FileOutputStream(dcmFile)) {
+            Log.info("Writing to file " + dcmFile.getCanonicalPath());
+            write(digest != null ? new DigestOutputStream(fos, digest) : fos);
+        }
+        return ConversionResult.success(propertiesFile, dcmFile,
+                System.nanoTime() - start, null, digest != null ? DigestUtils
+                        .toHex(digest.digest()) : null);
+    }
+
+    private boolean prepareAndValidate() {
+        // First prepare the dicom object.
+        prepare();
+
+        // Then verify it.
+        ValidationResult results = new ValidationResult();
+        validate(new ValidationContext(), results);
+
+        if (!results.isValid()) {
+            System.err.println("Dicom object did not pass validity tests.");
+            System.err.println(results.getInvalidValues().toString());
+            return false;
+        }
+        return true;
+    }
+
+    private void write(OutputStream out) throws IOException {
+        DicomOutputStream dos = new DicomOutputStream(
+                new BufferedOutputStream(out));
+        dos.writeDicomFile(dcmobj);
+        // dos.writeHeader(Tag.PixelData, VR.OB, -1);
+        // dos.writeHeader(Tag.Item, null, 0);
+        // dos.writeHeader(Tag.Item, null, (jpgLen + 1) & ~1);
+        dos.writeHeader(Tag.SequenceDelimitationItem, null, 0);
+        dos.flush();
+    }
+
     private void prepare() {
-        loadProperties(fiducialProperties);
+        if (configuration == null) {
+            loadProperties(fiducialProperties);
+        }
 
         DcmUtils.ensureUID(dcmobj, Tag.StudyInstanceUID);
         DcmUtils.ensureUID(dcmobj, Tag.SeriesInstanceUID);
@@ -12,7 +12,6 @@ package org.open_ortho.dcm4ceph.util;
 
 import org.dcm4che2.data.DicomObject;
 import org.dcm4che2.data.VR;
-import org.dcm4che2.util.UIDUtils;
 
 /**
  * A static class for dicom related utilities.
@@ -21,9 +20,45 @@ import org.dcm4che2.util.UIDUtils;
  * 
  */
 public class DcmUtils {
+
+    private static volatile UIDStrategy uidStrategy = UIDStrategy.RANDOM;
+
+    /**
+     * @return how new UIDs are created. Defaults to
+     *         {@link UIDStrategy#RANDOM}.
+     */
+    public static UIDStrategy getUIDStrategy() {
+        return uidStrategy;
+    }
+
+    /**
+     * Select how new UIDs are created, e.g. a {@link HashUIDStrategy} so
+     * that converting the same inputs again gives the same UIDs.
+     *
+     * @param strategy
+     *            The strategy.
+     */
+    public static void setUIDStrategy(UIDStrategy strategy) {
+        if (strategy == null) {
+            throw new NullPointerException("strategy");
+        }
+        uidStrategy = strategy;
+    }
+
+    /**
+     * Create a UID with the current {@link UIDStrategy}.
+     *
+     * @param components
+     *            What identifies the object, see
+     *            {@link UIDStrategy#createUID(String...)}.
+     */
+    public static String createUID(String... components) {
+        return uidStrategy.createUID(components);
+    }
+
     public static void ensureUID(DicomObject attrs, int tag) {
         if (!attrs.containsValue(tag)) {
-            attrs.putString(tag, VR.UI, UIDUtils.createUID());
+            attrs.putString(tag, VR.UI, createUID());
         }
     }
 
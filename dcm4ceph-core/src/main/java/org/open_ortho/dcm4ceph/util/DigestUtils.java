@@ -0,0 +1,150 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A static class with message digest utilities.
+ * <p>
+ * Digests are computed while the data is written, from the same buffers, so
+ * that the data does not have to be read again.
+ *
+ * @author afm
+ *
+ */
+public class DigestUtils {
+
+    /**
+     * The digest used for integrity manifests.
+     */
+    public static final String SHA256 = "SHA-256";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Get a new digest.
+     *
+     * @param algorithm
+     *            Name of the algorithm, such as {@code SHA-256}.
+     * @return a new {@link MessageDigest}
+     * @throws IllegalArgumentException
+     *             if the algorithm is not available
+     */
+    public static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unknown digest algorithm "
+                    + algorithm, e);
+        }
+    }
+
+    /**
+     * @param digest
+     *            The digest value.
+     * @return the value as lower case hex digits
+     */
+    public static String toHex(byte[] digest) {
+        char[] s = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            s[2 * i] = HEX[(digest[i] >> 4) & 0xf];
+            s[2 * i + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(s);
+    }
+
+    /**
+     * Compute the digest of a whole file.
+     *
+     * @param file
+     *            The file to read.
+     * @param algorithm
+     *            Name of the algorithm, such as {@code SHA-256}.
+     * @return the digest as lower case hex digits
+     */
+    public static String digest(File file, String algorithm)
+            throws IOException {
+        MessageDigest md = newDigest(algorithm);
+        ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            while (in.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * A channel that updates a digest with every byte written through it.
+     * <p>
+     * Note that a {@link java.nio.channels.FileChannel} can not transfer to
+     * such a channel without copying the bytes through a buffer.
+     *
+     * @param digest
+     *            The digest to update.
+     * @param out
+     *            The channel to write to, or {@code null} to only update the
+     *            digest.
+     */
+    public static WritableByteChannel digestingChannel(MessageDigest digest,
+            WritableByteChannel out) {
+        return new DigestChannel(digest, out);
+    }
+
+    private static class DigestChannel implements WritableByteChannel {
+        private final MessageDigest digest;
+        private final WritableByteChannel out;
+        private boolean open = true;
+
+        DigestChannel(MessageDigest digest, WritableByteChannel out) {
+            this.digest = digest;
+            this.out = out;
+        }
+
+        public int write(ByteBuffer src) throws IOException {
+            ByteBuffer written = src.duplicate();
+            int n;
+            if (out == null) {
+                n = src.remaining();
+                src.position(src.limit());
+            } else {
+                n = out.write(src);
+            }
+            written.limit(written.position() + n);
+            digest.update(written);
+            return n;
+        }
+
+        public boolean isOpen() {
+            return open && (out == null || out.isOpen());
+        }
+
+        /**
+         * Does not close the channel written to.
+         */
+        public void close() {
+            open = false;
+        }
+    }
+}
@@ -11,12 +11,16 @@
 package org.open_ortho.dcm4ceph.util;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.util.Properties;
 
@@ -113,7 +117,10 @@ public class FileUtils {
      * @param conffile
      *            The properties file you want to load.
      * 
-     * @return loaded Properties object
+     * @return loaded Properties object, empty if the file is not in the class
+     *         path
+     * @throws UncheckedIOException
+     *             if the file is in the class path but cannot be read
      */
     public static Properties loadProperties(String conffile) {
         Log.info("Loading Properties file " + conffile);
@@ -124,12 +131,11 @@ public class FileUtils {
         if (fileURL == null) {
             Log.warn("Could not find file " + conffile + " in ClassPath.");
         } else {
-            try {
-                p.load(new BufferedInputStream(fileURL.openStream()));
-            } catch (Exception e) {
-                e.printStackTrace();
+            try (InputStream is = new BufferedInputStream(fileURL.openStream())) {
+                p.load(is);
+            } catch (IOException e) {
                 Log.err("Cannot open the configuration file " + conffile);
-                System.exit(1);
+                throw new UncheckedIOException("Cannot read " + conffile, e);
             }
         }
         return p;
@@ -157,4 +163,38 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Copy a region of a file into a channel.
+     * <p>
+     * Uses {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so
+     * that the bytes do not pass through the Java heap when the operating
+     * system supports it (sendfile or copy_file_range on Linux). A single
+     * transfer may move fewer bytes than requested, therefore it is repeated
+     * until the whole region has been copied.
+     * 
+     * @param src
+     *            The file to copy from.
+     * @param position
+     *            Position in src of the first byte to copy.
+     * @param count
+     *            Number of bytes to copy.
+     * @param dst
+     *            The channel to copy to, written at its current position.
+     * @throws IOException
+     *             If src ends before count bytes were copied.
+     */
+    public static void transferFully(FileChannel src, long position,
+            long count, WritableByteChannel dst) throws IOException {
+        while (count > 0) {
+            long n = src.transferTo(position, count, dst);
+            if (n <= 0) {
+                // The file is shorter than expected.
+                throw new EOFException("Unexpected end of file at position "
+                        + position);
+            }
+            position += n;
+            count -= n;
+        }
+    }
+
 }
@@ -0,0 +1,125 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.util;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Derives UIDs from a root and a SHA-256 digest of what identifies the
+ * object.
+ * <p>
+ * Converting the same input again gives the same UIDs, without any table of
+ * the UIDs given out so far. Each thread has its own digest, so threads do
+ * not wait for each other.
+ * <p>
+ * Under the root {@code 2.25}, the UID is the decimal value of a UUID, as
+ * described in PS3.5 B.2: the first 128 bits of the digest, with the
+ * version set to 8 (custom) as in RFC 9562. Under another root, as many
+ * decimal digits of the digest as fit in 64 characters are used.
+ *
+ * @author afm
+ *
+ */
+public class HashUIDStrategy implements UIDStrategy {
+
+    /**
+     * The root for UIDs derived from UUIDs, which needs no registration.
+     */
+    public static final String UUID_ROOT = "2.25";
+
+    private static final int MAX_LENGTH = 64;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        protected MessageDigest initialValue() {
+            return DigestUtils.newDigest(DigestUtils.SHA256);
+        }
+    };
+
+    private final String root;
+
+    private final byte[] rootBytes;
+
+    private final BigInteger modulus;
+
+    /**
+     * Derive UIDs under {@link #UUID_ROOT}.
+     */
+    public HashUIDStrategy() {
+        this(UUID_ROOT);
+    }
+
+    /**
+     * @param root
+     *            The root of the UIDs, e.g. the root registered by the
+     *            archive.
+     * @throws IllegalArgumentException
+     *             if the root is not a valid UID, or leaves no room for a
+     *             suffix of at least 20 digits
+     */
+    public HashUIDStrategy(String root) {
+        if (!root.matches("(0|[1-9][0-9]*)(\\.(0|[1-9][0-9]*))*")) {
+            throw new IllegalArgumentException("Invalid UID root " + root);
+        }
+        int digits = MAX_LENGTH - root.length() - 1;
+        if (digits < 20) {
+            throw new IllegalArgumentException("UID root " + root
+                    + " is too long");
+        }
+        this.root = root;
+        this.rootBytes = root.getBytes(StandardCharsets.US_ASCII);
+        this.modulus = UUID_ROOT.equals(root) ? null : BigInteger.TEN
+                .pow(digits);
+    }
+
+    public String getRoot() {
+        return root;
+    }
+
+    public String createUID(String... components) {
+        if (components.length == 0) {
+            return RANDOM.createUID();
+        }
+        MessageDigest md = DIGEST.get();
+        md.update(rootBytes);
+        for (String c : components) {
+            // Length prefixes keep ("ab", "c") apart from ("a", "bc").
+            byte[] b = c == null ? new byte[0] : c
+                    .getBytes(StandardCharsets.UTF_8);
+            md.update((byte) (b.length >>> 24));
+            md.update((byte) (b.length >>> 16));
+            md.update((byte) (b.length >>> 8));
+            md.update((byte) b.length);
+            md.update(b);
+        }
+        byte[] hash = md.digest();
+        BigInteger suffix;
+        if (modulus == null) {
+            byte[] uuid = new byte[16];
+            System.arraycopy(hash, 0, uuid, 0, 16);
+            uuid[6] = (byte) ((uuid[6] & 0x0f) | 0x80);
+            uuid[8] = (byte) ((uuid[8] & 0x3f) | 0x80);
+            suffix = new BigInteger(1, uuid);
+        } else {
+            suffix = new BigInteger(1, hash).mod(modulus);
+        }
+        return root + '.' + suffix;
+    }
+
+    public boolean isDeterministic() {
+        return true;
+    }
+
+    public String toString() {
+        return "hash:" + root;
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.util;
+
+import org.dcm4che2.util.UIDUtils;
+
+/**
+ * Creates a new random UID for every object.
+ *
+ * @author afm
+ *
+ */
+class RandomUIDStrategy implements UIDStrategy {
+
+    public String createUID(String... components) {
+        return UIDUtils.createUID();
+    }
+
+    public boolean isDeterministic() {
+        return false;
+    }
+
+    public String toString() {
+        return "random";
+    }
+}
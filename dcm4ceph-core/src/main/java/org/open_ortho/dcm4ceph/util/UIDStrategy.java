@@ -0,0 +1,44 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.util;
+
+/**
+ * Creates the Study, Series and SOP Instance UIDs of new DICOM objects.
+ *
+ * @author afm
+ *
+ * @see DcmUtils#setUIDStrategy(UIDStrategy)
+ */
+public interface UIDStrategy {
+
+    /**
+     * A new random UID for every call, from {@code UIDUtils}.
+     */
+    UIDStrategy RANDOM = new RandomUIDStrategy();
+
+    /**
+     * Create a UID.
+     *
+     * @param components
+     *            What identifies the object, e.g. patient ID, study date,
+     *            cephalogram type and digest of the source image. A
+     *            deterministic strategy returns the same UID for the same
+     *            components; without components, it returns a random UID.
+     * @return a UID of at most 64 characters
+     */
+    String createUID(String... components);
+
+    /**
+     * @return whether the UID depends only on the components, so that
+     *         converting the same input again gives the same UIDs.
+     */
+    boolean isDeterministic();
+}
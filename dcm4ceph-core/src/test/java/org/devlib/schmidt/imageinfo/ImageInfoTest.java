@@ -0,0 +1,74 @@
+package org.devlib.schmidt.imageinfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * Compares the stream and the buffer modes of {@link ImageInfo} on a JPEG
+ * header.
+ */
+public class ImageInfoTest extends TestCase {
+
+    /**
+     * SOI, APP0 JFIF at 300x150 dpi, an EXIF-like APP1, a comment, DQT and
+     * SOF0 for a 8 bit 1200x900 image.
+     */
+    static byte[] makeJpegHeader() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xff);
+        out.write(0xd8);
+        writeSegment(out, 0xffe0, new byte[] { 'J', 'F', 'I', 'F', 0, 1, 2, 1,
+                0x01, 0x2c, 0x00, (byte) 0x96, 0, 0 });
+        writeSegment(out, 0xffe1, new byte[1000]);
+        writeSegment(out, 0xfffe, "scanned film ".getBytes());
+        writeSegment(out, 0xffdb, new byte[65]);
+        writeSegment(out, 0xffc0, new byte[] { 8, 0x03, (byte) 0x84, 0x04,
+                (byte) 0xb0, 1, 1, 0x11, 0 });
+        writeSegment(out, 0xffda, new byte[8]);
+        return out.toByteArray();
+    }
+
+    private static void writeSegment(ByteArrayOutputStream out, int marker,
+            byte[] data) {
+        int size = data.length + 2;
+        out.write(marker >> 8);
+        out.write(marker);
+        out.write(size >> 8);
+        out.write(size);
+        out.write(data, 0, data.length);
+    }
+
+    public void testBufferMatchesStream() {
+        byte[] jpeg = makeJpegHeader();
+
+        ImageInfo stream = new ImageInfo();
+        stream.setInput(new ByteArrayInputStream(jpeg));
+        stream.setCollectComments(true);
+        assertTrue(stream.check());
+
+        ImageInfo buffer = new ImageInfo();
+        buffer.setInput(ByteBuffer.wrap(jpeg));
+        buffer.setCollectComments(true);
+        assertTrue(buffer.check());
+
+        assertEquals(1200, buffer.getWidth());
+        assertEquals(900, buffer.getHeight());
+        assertEquals(stream.getWidth(), buffer.getWidth());
+        assertEquals(stream.getHeight(), buffer.getHeight());
+        assertEquals(stream.getBitsPerPixel(), buffer.getBitsPerPixel());
+        assertEquals(stream.getPhysicalWidthDpi(), buffer.getPhysicalWidthDpi());
+        assertEquals(stream.getPhysicalHeightDpi(), buffer.getPhysicalHeightDpi());
+        assertEquals(1, buffer.getNumberOfComments());
+        assertEquals("scanned film", buffer.getComment(0));
+    }
+
+    public void testTruncatedBuffer() {
+        byte[] jpeg = makeJpegHeader();
+        ImageInfo ii = new ImageInfo();
+        ii.setInput(ByteBuffer.wrap(jpeg, 0, 200));
+        assertFalse(ii.check());
+    }
+}
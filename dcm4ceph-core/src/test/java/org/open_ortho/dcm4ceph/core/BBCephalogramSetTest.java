@@ -0,0 +1,79 @@
+package org.open_ortho.dcm4ceph.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Writes a cephalogram set in the background.
+ */
+public class BBCephalogramSetTest extends TestCase {
+
+    private File dir;
+
+    private File rootdir;
+
+    private BBCephalogramSet set;
+
+    private ExecutorService executor;
+
+    protected void setUp() throws IOException {
+        File samples = new File(System.getProperty("dcm4ceph.sampledata",
+                "../dcm4ceph-sampledata"));
+        dir = Files.createTempDirectory("cephset").toFile();
+        rootdir = new File(dir, "BBcephset");
+        // The defaults of every fiducial property apply.
+        File fiducials = new File(dir, "B1893.properties");
+        Files.write(fiducials.toPath(), new byte[0]);
+        set = new BBCephalogramSet(new File(samples, "B1893L12.jpg"),
+                new File(samples, "B1893F12.jpg"), fiducials);
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    protected void tearDown() {
+        executor.shutdownNow();
+        delete(dir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    public void testWriteCephsAsync() throws Exception {
+        File dicomdir = set.writeCephsAsync(rootdir, executor).get(60,
+                TimeUnit.SECONDS);
+        assertEquals(new File(rootdir, "DICOMDIR").getAbsoluteFile(),
+                dicomdir.getAbsoluteFile());
+        assertTrue(dicomdir.length() > 0);
+        assertEquals(1, new File(rootdir, "ceph1").list().length);
+        assertEquals(1, new File(rootdir, "ceph2").list().length);
+        assertTrue(new File(new File(rootdir, "fiducials"), "B1893.dcm")
+                .length() > 0);
+    }
+
+    public void testFiducialWriteFails() throws Exception {
+        // A file where the fiducial set directory should be.
+        rootdir.mkdirs();
+        Files.write(new File(rootdir, "fiducials").toPath(), new byte[0]);
+        try {
+            set.writeCephsAsync(rootdir, executor).get(60, TimeUnit.SECONDS);
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(),
+                    e.getCause() instanceof IOException);
+        }
+        assertFalse(new File(rootdir, "DICOMDIR").exists());
+    }
+}
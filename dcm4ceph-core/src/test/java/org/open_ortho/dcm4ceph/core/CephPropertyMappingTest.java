@@ -0,0 +1,89 @@
+package org.open_ortho.dcm4ceph.core;
+
+import java.time.LocalTime;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.dcm4che2.data.BasicDicomObject;
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+
+/**
+ * The property to attribute mapping table.
+ */
+public class CephPropertyMappingTest extends TestCase {
+
+    private static final int BUILT_IN = 11;
+
+    public void testBuiltIn() {
+        CephPropertyMapping mapping = CephPropertyMapping.compile(null);
+        assertEquals(BUILT_IN, mapping.size());
+
+        Properties props = new Properties();
+        props.setProperty("patientName", "Doe^John");
+        props.setProperty("patientDOB", "1931-07-08");
+        props.setProperty("seriesNumber", "2");
+        DicomObject dcmobj = new BasicDicomObject();
+        mapping.apply(props, dcmobj);
+        assertEquals("Doe^John", dcmobj.getString(Tag.PatientName));
+        assertEquals("19310708", dcmobj.getString(Tag.PatientBirthDate));
+        assertEquals("2", dcmobj.getString(Tag.SeriesNumber));
+        // Missing properties give empty attributes.
+        assertTrue(dcmobj.contains(Tag.PatientID));
+        assertFalse(dcmobj.containsValue(Tag.PatientID));
+    }
+
+    public void testInvalidDate() {
+        Properties props = new Properties();
+        props.setProperty("patientDOB", "08/07/1931");
+        DicomObject dcmobj = new BasicDicomObject();
+        CephPropertyMapping.compile(null).apply(props, dcmobj);
+        assertTrue(dcmobj.contains(Tag.PatientBirthDate));
+        assertFalse(dcmobj.containsValue(Tag.PatientBirthDate));
+    }
+
+    public void testPropertyTime() {
+        assertEquals("093000", LocalTime.parse("9:30",
+                CephPropertyMapping.PROPERTY_TIME).format(
+                CephPropertyMapping.DICOM_TIME));
+        // Seconds, as written by older tools, are kept.
+        assertEquals("093015", LocalTime.parse("09:30:15",
+                CephPropertyMapping.PROPERTY_TIME).format(
+                CephPropertyMapping.DICOM_TIME));
+    }
+
+    public void testSiteMappings() {
+        Properties site = new Properties();
+        site.setProperty("manufacturer", "Manufacturer, LO");
+        site.setProperty("station", "00081010, SH");
+        site.setProperty("acquired", "AcquisitionDate, DA, date");
+        // replaces the built-in mapping
+        site.setProperty("patientID", "OtherPatientIDs, LO");
+        CephPropertyMapping mapping = CephPropertyMapping.compile(site);
+        assertEquals(BUILT_IN + 3, mapping.size());
+
+        Properties props = new Properties();
+        props.setProperty("manufacturer", "Acme");
+        props.setProperty("station", "CEPH1");
+        props.setProperty("acquired", "2006-01-31");
+        props.setProperty("patientID", "B1893");
+        DicomObject dcmobj = new BasicDicomObject();
+        mapping.apply(props, dcmobj);
+        assertEquals("Acme", dcmobj.getString(Tag.Manufacturer));
+        assertEquals("CEPH1", dcmobj.getString(Tag.StationName));
+        assertEquals("20060131", dcmobj.getString(Tag.AcquisitionDate));
+        assertEquals("B1893", dcmobj.getString(Tag.OtherPatientIDs));
+        assertFalse(dcmobj.contains(Tag.PatientID));
+    }
+
+    public void testInvalidSiteMappings() {
+        Properties site = new Properties();
+        site.setProperty("unknown", "NoSuchAttributeKeyword, LO");
+        site.setProperty("noVR", "Manufacturer");
+        site.setProperty("badVR", "Manufacturer, LONG");
+        site.setProperty("badParser", "Manufacturer, LO, number");
+        // Invalid mappings are left out, the others are kept.
+        assertEquals(BUILT_IN, CephPropertyMapping.compile(site).size());
+    }
+}
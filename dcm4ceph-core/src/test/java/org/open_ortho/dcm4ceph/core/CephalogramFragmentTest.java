@@ -0,0 +1,116 @@
+package org.open_ortho.dcm4ceph.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.dcm4che2.data.DicomElement;
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.io.DicomInputStream;
+
+/**
+ * Encapsulated pixel data written in fragments and read back.
+ */
+public class CephalogramFragmentTest extends TestCase {
+
+    private Properties properties;
+
+    private byte[] jpeg;
+
+    protected void setUp() throws IOException {
+        File dir = new File(System.getProperty("dcm4ceph.sampledata",
+                "../dcm4ceph-sampledata"));
+        jpeg = Files.readAllBytes(new File(dir, "B1893L12.jpg").toPath());
+        properties = new Properties();
+        try (InputStream in = new FileInputStream(new File(dir,
+                "B1893L12.properties"))) {
+            properties.load(in);
+        }
+    }
+
+    private DicomElement writeAndRead(long fragmentSize) throws IOException {
+        Cephalogram ceph = new Cephalogram(new ByteArrayInputStream(jpeg),
+                jpeg.length, properties);
+        ceph.setFragmentSize(fragmentSize);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ceph.writeDCM(out);
+        DicomInputStream in = new DicomInputStream(new ByteArrayInputStream(
+                out.toByteArray()));
+        try {
+            DicomObject dcmobj = in.readDicomObject();
+            return dcmobj.get(Tag.PixelData);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Check the Basic Offset Table and join the fragments after it.
+     */
+    private static byte[] join(DicomElement pixelData) {
+        assertEquals(-1, pixelData.length());
+        assertTrue(Arrays.equals(new byte[4], pixelData.getFragment(0)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 1; i < pixelData.countItems(); i++) {
+            byte[] fragment = pixelData.getFragment(i);
+            assertEquals(0, fragment.length & 1);
+            out.write(fragment, 0, fragment.length);
+        }
+        return out.toByteArray();
+    }
+
+    private void assertSameImage(byte[] pixels) {
+        // An odd-length image is padded with a single zero byte.
+        assertEquals((jpeg.length + 1) & ~1, pixels.length);
+        assertTrue(Arrays.equals(jpeg, Arrays.copyOf(pixels, jpeg.length)));
+        if ((jpeg.length & 1) != 0) {
+            assertEquals(0, pixels[jpeg.length]);
+        }
+    }
+
+    public void testSingleFragment() throws IOException {
+        DicomElement pixelData = writeAndRead(0);
+        assertEquals(2, pixelData.countItems());
+        assertSameImage(join(pixelData));
+    }
+
+    public void testSmallFragments() throws IOException {
+        // Rounded down to 1000.
+        DicomElement pixelData = writeAndRead(1001);
+        int fragments = (jpeg.length + 999) / 1000;
+        assertEquals(1 + fragments, pixelData.countItems());
+        for (int i = 1; i < fragments; i++) {
+            assertEquals(1000, pixelData.getFragment(i).length);
+        }
+        assertSameImage(join(pixelData));
+    }
+
+    public void testOddLastFragment() throws IOException {
+        // A byte after the end of image makes the stream odd.
+        jpeg = Arrays.copyOf(jpeg, jpeg.length | 1);
+        DicomElement pixelData = writeAndRead(1000);
+        byte[] last = pixelData.getFragment(pixelData.countItems() - 1);
+        assertEquals(jpeg.length % 1000 + 1, last.length);
+        assertEquals(0, last[last.length - 1]);
+        assertSameImage(join(pixelData));
+    }
+
+    public void testFragmentSize() throws IOException {
+        Cephalogram ceph = new Cephalogram(new ByteArrayInputStream(jpeg),
+                jpeg.length, properties);
+        ceph.setFragmentSize(1001);
+        assertEquals(1000, ceph.getFragmentSize());
+        ceph.setFragmentSize(Long.MAX_VALUE);
+        assertEquals(Cephalogram.MAX_FRAGMENT_SIZE, ceph.getFragmentSize());
+        assertEquals(0, ceph.getFragmentSize() & 1);
+    }
+}
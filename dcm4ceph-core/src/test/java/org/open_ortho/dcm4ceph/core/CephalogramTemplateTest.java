@@ -0,0 +1,74 @@
+package org.open_ortho.dcm4ceph.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.data.VR;
+import org.open_ortho.dcm4ceph.util.DcmUtils;
+import org.open_ortho.dcm4ceph.util.HashUIDStrategy;
+import org.open_ortho.dcm4ceph.util.UIDStrategy;
+
+/**
+ * Cephalograms written from the header template.
+ */
+public class CephalogramTemplateTest extends TestCase {
+
+    private File image;
+
+    protected void setUp() {
+        image = new File(new File(System.getProperty("dcm4ceph.sampledata",
+                "../dcm4ceph-sampledata")), "B1893L12.jpg");
+        // The same UIDs for the same image, so that files can be compared.
+        DcmUtils.setUIDStrategy(new HashUIDStrategy());
+    }
+
+    protected void tearDown() {
+        Cephalogram.setHeaderTemplateEnabled(false);
+        DcmUtils.setUIDStrategy(UIDStrategy.RANDOM);
+    }
+
+    private Cephalogram create(boolean template) throws IOException {
+        Cephalogram.setHeaderTemplateEnabled(template);
+        return new Cephalogram(image);
+    }
+
+    private static byte[] write(Cephalogram ceph) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ceph.writeDCM(out);
+        return out.toByteArray();
+    }
+
+    private static DicomObject orientationCode(Cephalogram ceph) {
+        return ceph.getDicomObject().get(Tag.PatientOrientationCodeSequence)
+                .getDicomObject();
+    }
+
+    public void testSameAsWithoutTemplate() throws IOException {
+        byte[] plain = write(create(false));
+        byte[] templated = write(create(true));
+        assertTrue(plain.length > 0);
+        assertTrue(Arrays.equals(plain, templated));
+        // The second cephalogram of a template too.
+        assertTrue(Arrays.equals(plain, write(create(true))));
+    }
+
+    public void testCodeChangedInPlace() throws IOException {
+        Cephalogram plain = create(false);
+        orientationCode(plain).putString(Tag.CodeMeaning, VR.LO, "STANDING");
+        Cephalogram templated = create(true);
+        orientationCode(templated).putString(Tag.CodeMeaning, VR.LO,
+                "STANDING");
+        assertTrue(Arrays.equals(write(plain), write(templated)));
+
+        // The template itself is not changed.
+        assertEquals("ERECT", orientationCode(create(true)).getString(
+                Tag.CodeMeaning));
+        assertTrue(Arrays.equals(write(create(false)), write(create(true))));
+    }
+}
@@ -0,0 +1,142 @@
+package org.open_ortho.dcm4ceph.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.dcm4che2.data.BasicDicomObject;
+import org.dcm4che2.data.DicomObject;
+import org.dcm4che2.data.Tag;
+import org.dcm4che2.data.UID;
+import org.dcm4che2.data.VR;
+import org.dcm4che2.media.DicomDirReader;
+import org.dcm4che2.media.DicomDirWriter;
+
+/**
+ * Record hierarchy of a DICOMDIR built from objects in memory.
+ */
+public class DicomDirBuilderTest extends TestCase {
+
+    private File dir;
+
+    private File dicomdir;
+
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("dicomdir").toFile();
+        dicomdir = new File(dir, "DICOMDIR");
+    }
+
+    protected void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static DicomObject makeObject(String studyUID, String seriesUID,
+            String iuid) {
+        DicomObject dcmobj = new BasicDicomObject();
+        dcmobj.initFileMetaInformation(UID.DigitalXRayImageStorageForProcessing,
+                iuid, UID.JPEGBaseline1);
+        dcmobj.putString(Tag.SOPClassUID, VR.UI,
+                UID.DigitalXRayImageStorageForProcessing);
+        dcmobj.putString(Tag.SOPInstanceUID, VR.UI, iuid);
+        dcmobj.putString(Tag.PatientID, VR.LO, "B1893");
+        dcmobj.putString(Tag.PatientName, VR.PN, "Bolton^Brush");
+        dcmobj.putString(Tag.StudyInstanceUID, VR.UI, studyUID);
+        dcmobj.putString(Tag.StudyDate, VR.DA, "19600101");
+        dcmobj.putString(Tag.SeriesInstanceUID, VR.UI, seriesUID);
+        dcmobj.putString(Tag.Modality, VR.CS, "DX");
+        return dcmobj;
+    }
+
+    private File file(String name) throws IOException {
+        File f = new File(dir, name);
+        f.createNewFile();
+        return f;
+    }
+
+    private static List<DicomObject> children(DicomDirReader reader,
+            DicomObject parent) throws IOException {
+        List<DicomObject> records = new ArrayList<DicomObject>();
+        for (DicomObject rec = parent == null ? reader.findFirstRootRecord()
+                : reader.findFirstChildRecord(parent); rec != null; rec = reader
+                .findNextSiblingRecord(rec)) {
+            records.add(rec);
+        }
+        return records;
+    }
+
+    public void testTwoStudiesOfOnePatient() throws IOException {
+        try (DicomDirBuilder builder = new DicomDirBuilder(dicomdir)) {
+            assertTrue(builder.add(makeObject("1.1", "1.1.1", "1.1.1.1"),
+                    file("LAT")));
+            assertTrue(builder.add(makeObject("1.1", "1.1.1", "1.1.1.2"),
+                    file("PA")));
+            assertTrue(builder.add(makeObject("1.2", "1.2.1", "1.2.1.1"),
+                    file("LAT2")));
+            // The same instance again is not added.
+            assertFalse(builder.add(makeObject("1.1", "1.1.1", "1.1.1.1"),
+                    file("LAT")));
+        }
+
+        DicomDirReader reader = new DicomDirReader(dicomdir);
+        try {
+            List<DicomObject> patients = children(reader, null);
+            assertEquals(1, patients.size());
+            assertEquals("PATIENT", patients.get(0).getString(
+                    Tag.DirectoryRecordType));
+            assertEquals("B1893", patients.get(0).getString(Tag.PatientID));
+
+            List<DicomObject> studies = children(reader, patients.get(0));
+            assertEquals(2, studies.size());
+            assertEquals("1.1", studies.get(0).getString(Tag.StudyInstanceUID));
+            assertEquals("1.2", studies.get(1).getString(Tag.StudyInstanceUID));
+
+            List<DicomObject> series = children(reader, studies.get(0));
+            assertEquals(1, series.size());
+            assertEquals("SERIES", series.get(0).getString(
+                    Tag.DirectoryRecordType));
+            List<DicomObject> images = children(reader, series.get(0));
+            assertEquals(2, images.size());
+            assertEquals("1.1.1.2", images.get(1).getString(
+                    Tag.ReferencedSOPInstanceUIDInFile));
+            assertEquals("PA", images.get(1).getString(Tag.ReferencedFileID));
+
+            assertEquals(1, children(reader,
+                    children(reader, studies.get(1)).get(0)).size());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testAddToExisting() throws IOException {
+        try (DicomDirBuilder builder = new DicomDirBuilder(dicomdir)) {
+            builder.add(makeObject("1.1", "1.1.1", "1.1.1.1"), file("LAT"));
+        }
+        try (DicomDirBuilder builder = new DicomDirBuilder(new DicomDirWriter(
+                dicomdir))) {
+            assertFalse(builder.add(makeObject("1.1", "1.1.1", "1.1.1.1"),
+                    file("LAT")));
+            assertTrue(builder.add(makeObject("1.1", "1.1.1", "1.1.1.2"),
+                    file("PA")));
+        }
+
+        DicomDirReader reader = new DicomDirReader(dicomdir);
+        try {
+            List<DicomObject> patients = children(reader, null);
+            assertEquals(1, patients.size());
+            List<DicomObject> studies = children(reader, patients.get(0));
+            assertEquals(1, studies.size());
+            List<DicomObject> series = children(reader, studies.get(0));
+            assertEquals(1, series.size());
+            assertEquals(2, children(reader, series.get(0)).size());
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.open_ortho.dcm4ceph.core;
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * Fiducial configuration parsed once, and coordinates computed once.
+ */
+public class FiducialConfigurationTest extends TestCase {
+
+    public void testDefaults() {
+        FiducialConfiguration defaults = FiducialConfiguration.getDefaults();
+        assertSame(defaults, FiducialConfiguration.getDefaults());
+        assertEquals(271.7f, defaults.d12, 0f);
+        // fiducial_defaults.properties names it d41.
+        assertEquals(303.0f, defaults.d14, 0f);
+        assertEquals(300, defaults.dpi);
+        assertSame(defaults, defaults.with(new Properties()));
+    }
+
+    public void testWith() {
+        Properties p = new Properties();
+        p.setProperty("d12", "250");
+        p.setProperty("dpi", "150");
+        FiducialConfiguration c = FiducialConfiguration.getDefaults().with(p);
+        assertEquals(250f, c.d12, 0f);
+        assertEquals(304.0f, c.d23, 0f);
+        assertEquals(150, c.dpi);
+    }
+
+    public void testCoordinates() {
+        FiducialConfiguration c = FiducialConfiguration.getDefaults();
+        float[] xy = c.coordinates();
+        assertSame(xy, c.coordinates());
+        assertEquals(c.getPixelDistance(c.d34), xy[4], 0f);
+        assertEquals(0f, xy[6], 0f);
+        assertEquals(0f, xy[7], 0f);
+        assertEquals(c.getPixelDistance(c.d23), Math.hypot(xy[2] - xy[4],
+                xy[3] - xy[5]), 2.0);
+        // d12 only picks the side of F1, the measured distances disagree by
+        // a few pixels.
+        assertEquals(c.getPixelDistance(c.d12), Math.hypot(xy[0] - xy[2],
+                xy[1] - xy[3]), 5.0);
+    }
+}
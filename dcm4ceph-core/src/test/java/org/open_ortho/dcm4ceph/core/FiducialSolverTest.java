@@ -0,0 +1,52 @@
+package org.open_ortho.dcm4ceph.core;
+
+import junit.framework.TestCase;
+
+/**
+ * Least squares fit of fiducial corners.
+ */
+public class FiducialSolverTest extends TestCase {
+
+    /**
+     * The distances of a known rectangle, with d12 off by 3.
+     */
+    private static final float[] SET = { 303, 400, 300, 400, 500, 500 };
+
+    public void testExactSet() {
+        float[] xy = FiducialSolver.solve(new float[] { 300, 400, 300, 400,
+                500, 500 });
+        float[] expected = { 0, 400, 300, 400, 300, 0, 0, 0 };
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], xy[i], 1e-3f);
+        }
+    }
+
+    public void testResidual() {
+        float[] xy = new float[FiducialSolver.COORDINATES];
+        float[] residuals = new float[1];
+        FiducialSolver.solve(SET, xy, residuals, 0, 1);
+        assertTrue(residuals[0] > 0);
+        // Spreading the error over all six distances beats the closed form,
+        // which puts all of it on d12.
+        assertTrue(residuals[0] < 3 / Math.sqrt(6));
+    }
+
+    public void testParallel() {
+        int n = 5000;
+        float[] d = new float[n * FiducialSolver.DISTANCES];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(SET, 0, d, i * FiducialSolver.DISTANCES,
+                    FiducialSolver.DISTANCES);
+        }
+        float[] xy = new float[n * FiducialSolver.COORDINATES];
+        float[] residuals = new float[n];
+        FiducialSolver.solveParallel(d, xy, residuals);
+        float[] one = FiducialSolver.solve(SET);
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < FiducialSolver.COORDINATES; k++) {
+                assertEquals(one[k], xy[i * FiducialSolver.COORDINATES + k],
+                        0f);
+            }
+        }
+    }
+}
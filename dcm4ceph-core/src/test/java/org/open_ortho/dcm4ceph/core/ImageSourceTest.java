@@ -0,0 +1,202 @@
+package org.open_ortho.dcm4ceph.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.devlib.schmidt.imageinfo.ImageInfo;
+
+/**
+ * Reads images from channels and files, and copies them out again.
+ */
+public class ImageSourceTest extends TestCase {
+
+    private static byte[] makeData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    private static byte[] copy(ImageSource source) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.transferTo(0, source.size(), Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    public void testUnknownLength() throws IOException {
+        // Longer than the initial buffer, so that it has to grow.
+        byte[] data = makeData(3 * 1024 * 1024 + 17);
+        ImageSource source = ImageSource.read(
+                Channels.newChannel(new ByteArrayInputStream(data)), -1);
+        assertEquals(data.length, source.size());
+        assertTrue(Arrays.equals(data, copy(source)));
+        // A source can be written more than once.
+        assertTrue(Arrays.equals(data, copy(source)));
+        ByteBuffer header = source.header();
+        assertEquals(data[0], header.get());
+        assertEquals(data[1], header.get());
+    }
+
+    public void testKnownLength() throws IOException {
+        byte[] data = makeData(1000);
+        ImageSource source = ImageSource.read(
+                Channels.newChannel(new ByteArrayInputStream(data)), 600);
+        assertEquals(600, source.size());
+        assertTrue(Arrays.equals(Arrays.copyOf(data, 600), copy(source)));
+    }
+
+    public void testPart() throws IOException {
+        byte[] data = makeData(1000);
+        ImageSource source = ImageSource.read(
+                Channels.newChannel(new ByteArrayInputStream(data)), -1);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        source.transferTo(100, 250, Channels.newChannel(out));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, 100, 350),
+                out.toByteArray()));
+    }
+
+    public void testTruncated() throws IOException {
+        try {
+            ImageSource.read(Channels.newChannel(new ByteArrayInputStream(
+                    makeData(100))), 200);
+            fail("expected EOFException");
+        } catch (EOFException e) {
+            // expected
+        }
+    }
+
+    public void testFileChannelFromPosition() throws IOException {
+        byte[] data = makeData(5000);
+        File file = File.createTempFile("image", ".jpg");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            channel.position(1000);
+            ImageSource source = ImageSource.read(channel, -1);
+            assertEquals(4000, source.size());
+            assertTrue(Arrays.equals(Arrays.copyOfRange(data, 1000, 5000),
+                    copy(source)));
+            assertEquals(data[1000], source.header().get());
+            source.close();
+            // The channel belongs to the caller.
+            assertTrue(channel.isOpen());
+        }
+    }
+
+    private static File writeFile(byte[] data) throws IOException {
+        File file = File.createTempFile("image", ".jpg");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return file;
+    }
+
+    public void testFileHeaderWindow() throws IOException {
+        // Not a JPEG stream: only the first window is read.
+        byte[] data = makeData(ImageSource.HEADER_WINDOW + 5000);
+        data[0] = 0;
+        File file = writeFile(data);
+        try (ImageSource source = ImageSource.open(file)) {
+            ByteBuffer header = source.header();
+            assertEquals(ImageSource.HEADER_WINDOW, header.remaining());
+            byte[] bytes = new byte[header.remaining()];
+            header.get(bytes);
+            assertTrue(Arrays.equals(Arrays.copyOf(data, bytes.length), bytes));
+            // Each call returns the whole header again.
+            assertEquals(ImageSource.HEADER_WINDOW, source.header().remaining());
+        }
+    }
+
+    private static void segment(ByteArrayOutputStream out, int marker,
+            byte[] data) {
+        int size = data.length + 2;
+        out.write(0xff);
+        out.write(marker);
+        out.write(size >> 8);
+        out.write(size);
+        out.write(data, 0, data.length);
+    }
+
+    public void testLargeAppSegments() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xff);
+        out.write(0xd8);
+        segment(out, 0xe0, new byte[] { 'J', 'F', 'I', 'F', 0, 1, 2, 1, 1,
+                44, 1, 44, 0, 0 });
+        // ICC chunks of the largest size, together past several windows.
+        int chunks = 3 * ImageSource.HEADER_WINDOW / 65533 + 1;
+        for (int i = 0; i < chunks; i++) {
+            segment(out, 0xe2, new byte[65533]);
+        }
+        segment(out, 0xdb, new byte[65]);
+        // 8 bits, 2000 rows, 1500 columns, one component
+        segment(out, 0xc0, new byte[] { 8, 0x07, (byte) 0xd0, 0x05,
+                (byte) 0xdc, 1, 1, 0x11, 0 });
+        segment(out, 0xda, new byte[8]);
+        out.write(makeData(100000), 0, 100000);
+        out.write(0xff);
+        out.write(0xd9);
+        byte[] data = out.toByteArray();
+        File file = writeFile(data);
+        try (ImageSource source = ImageSource.open(file)) {
+            ByteBuffer header = source.header();
+            long length = JpegSegmentFilter.headerLength(header);
+            assertTrue(length > ImageSource.HEADER_WINDOW);
+            assertTrue(length <= header.remaining());
+            // The image attributes are found behind the large segments.
+            ImageInfo ii = new ImageInfo();
+            ii.setInput(header.duplicate());
+            assertTrue(ii.check());
+            assertEquals(1500, ii.getWidth());
+            assertEquals(2000, ii.getHeight());
+            JpegSegmentFilter.Segments segments = JpegSegmentFilter.METADATA
+                    .scan(header, source.size());
+            assertEquals(chunks, segments.strippedCount);
+        }
+    }
+
+    public void testRangesHeader() throws IOException {
+        byte[] data = makeData(1000);
+        ImageSource source = ImageSource.read(
+                Channels.newChannel(new ByteArrayInputStream(data)), -1);
+        ImageSource ranges = source.ranges(new long[] { 0, 10, 20, 1000 });
+        assertEquals(990, ranges.size());
+        ByteBuffer header = ranges.header();
+        assertEquals(990, header.remaining());
+        byte[] bytes = new byte[header.remaining()];
+        header.get(bytes);
+        assertTrue(Arrays.equals(copy(ranges), bytes));
+        assertEquals(data[9], bytes[9]);
+        assertEquals(data[20], bytes[10]);
+    }
+
+    public void testTruncatedFile() throws IOException {
+        File file = writeFile(makeData(1000));
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            ImageSource source = ImageSource.read(channel, 2000);
+            try {
+                copy(source);
+                fail("expected EOFException");
+            } catch (EOFException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.open_ortho.dcm4ceph.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Strips marker segments from a synthetic JPEG stream.
+ */
+public class JpegSegmentFilterTest extends TestCase {
+
+    private static void segment(ByteArrayOutputStream out, int marker,
+            byte[] data) {
+        int size = data.length + 2;
+        out.write(0xff);
+        out.write(marker);
+        out.write(size >> 8);
+        out.write(size);
+        out.write(data, 0, data.length);
+    }
+
+    private static byte[] withIdentifier(String id, byte[] data) {
+        byte[] segment = Arrays.copyOf(id.getBytes(), id.length() + 1
+                + data.length);
+        System.arraycopy(data, 0, segment, id.length() + 1, data.length);
+        return segment;
+    }
+
+    private static byte[] iccChunk(int seq, byte[] data) {
+        byte[] chunk = withIdentifier("ICC_PROFILE", new byte[2 + data.length]);
+        chunk[12] = (byte) seq;
+        chunk[13] = 2;
+        System.arraycopy(data, 0, chunk, 14, data.length);
+        return chunk;
+    }
+
+    private static byte[] jpeg(boolean withMetadata) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xff);
+        out.write(0xd8);
+        segment(out, 0xe0, "JFIF".getBytes());
+        if (withMetadata) {
+            segment(out, 0xe1, withIdentifier("Exif", new byte[3000]));
+            segment(out, 0xe2, iccChunk(2, new byte[] { 3, 4 }));
+            segment(out, 0xe2, iccChunk(1, new byte[] { 1, 2 }));
+        }
+        segment(out, 0xdb, new byte[65]);
+        if (withMetadata) {
+            segment(out, 0xfe, "scanned film ".getBytes());
+        }
+        segment(out, 0xc0, new byte[9]);
+        segment(out, 0xda, new byte[8]);
+        // Entropy coded data, which is never walked.
+        out.write(new byte[] { 1, 2, (byte) 0xff, 0, (byte) 0xff, (byte) 0xe1,
+                3 }, 0, 7);
+        out.write(0xff);
+        out.write(0xd9);
+        return out.toByteArray();
+    }
+
+    public void testStripMetadata() throws IOException {
+        byte[] in = jpeg(true);
+        ImageSource source = ImageSource.read(
+                Channels.newChannel(new ByteArrayInputStream(in)), -1);
+        JpegSegmentFilter.Segments segments = JpegSegmentFilter.METADATA
+                .scan(ByteBuffer.wrap(in), in.length);
+        assertEquals(4, segments.strippedCount);
+        assertEquals(1, segments.comments.size());
+        assertEquals("scanned film", segments.comments.get(0));
+        assertEquals(Arrays.asList("APP1 Exif 3005 bytes",
+                "APP2 ICC_PROFILE 16 bytes", "APP2 ICC_PROFILE 16 bytes",
+                "COM 13 bytes"), segments.stripped);
+        assertTrue(Arrays.equals(new byte[] { 1, 2, 3, 4 },
+                segments.iccProfile));
+
+        ImageSource stripped = source.ranges(segments.kept);
+        byte[] expected = jpeg(false);
+        assertEquals(expected.length, stripped.size());
+        assertEquals(in.length - expected.length, segments.strippedBytes);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stripped.transferTo(0, stripped.size(), Channels.newChannel(out));
+        assertTrue(Arrays.equals(expected, out.toByteArray()));
+
+        // A part of the stripped stream, across a gap.
+        out.reset();
+        stripped.transferTo(10, 20, Channels.newChannel(out));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(expected, 10, 30),
+                out.toByteArray()));
+    }
+
+    public void testNotJpeg() {
+        byte[] in = new byte[100];
+        assertNull(JpegSegmentFilter.METADATA.scan(ByteBuffer.wrap(in),
+                in.length));
+    }
+
+    public void testParse() {
+        JpegSegmentFilter filter = JpegSegmentFilter.parse("APP2, com,FFE5");
+        assertTrue(filter.isStripped(0xe2));
+        assertTrue(filter.isStripped(0xe5));
+        assertTrue(filter.isStripped(0xfe));
+        assertFalse(filter.isStripped(0xe1));
+        assertFalse(JpegSegmentFilter.METADATA.isStripped(0xe0));
+        assertFalse(JpegSegmentFilter.METADATA.isStripped(0xee));
+        for (String spec : new String[] { "APP16", "FFDB", "FFC0-FFE1",
+                "FFDD" }) {
+            try {
+                JpegSegmentFilter.parse(spec);
+                fail("expected IllegalArgumentException for " + spec);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testIncompleteIccProfile() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xff);
+        out.write(0xd8);
+        segment(out, 0xe2, iccChunk(1, new byte[] { 1, 2 }));
+        segment(out, 0xda, new byte[8]);
+        byte[] in = out.toByteArray();
+        JpegSegmentFilter.Segments segments = JpegSegmentFilter.METADATA
+                .scan(ByteBuffer.wrap(in), in.length);
+        assertEquals(1, segments.strippedCount);
+        assertNull(segments.iccProfile);
+    }
+}
@@ -0,0 +1,65 @@
+package org.open_ortho.dcm4ceph.core;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.dcm4che2.iod.module.spatial.GraphicCoordinatesData;
+
+/**
+ * Packed point storage.
+ */
+public class PointArrayTest extends TestCase {
+
+    public void testViewSharesStorage() {
+        float[] xy = { 1, 2, 3, 4, 5, 6 };
+        PointArray points = PointArray.wrap(xy);
+        assertEquals(3, points.size());
+        PointArray view = points.view(1, 3);
+        view.set(0, 30, 40);
+        assertEquals(30f, xy[2]);
+        assertEquals(40f, points.getY(1));
+        try {
+            view.getX(2);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testTransforms() {
+        PointArray points = PointArray.wrap(new float[] { 1, 2, 3, 4 });
+        points.view(1, 2).translate(10, 20);
+        assertEquals(1f, points.getX(0));
+        assertEquals(13f, points.getX(1));
+        assertEquals(24f, points.getY(1));
+        // rotate by 90 degrees and scale to mm at 300 dpi
+        points.transform(0, -1, 1, 0, 0, 0).scale(25.4f / 300, 25.4f / 300);
+        assertEquals(-2 * 25.4f / 300, points.getX(0), 1e-6f);
+        assertEquals(1 * 25.4f / 300, points.getY(0), 1e-6f);
+    }
+
+    public void testToFloatArray() {
+        float[] xy = { 1, 2, 3, 4 };
+        PointArray points = PointArray.wrap(xy);
+        assertSame(xy, points.toFloatArray());
+        float[] data = points.view(1, 2).toFloatArray();
+        assertEquals(2, data.length);
+        assertEquals(3f, data[0]);
+        assertEquals(4f, data[1]);
+    }
+
+    public void testWritePoint() {
+        PointArray points = PointArray.wrap(new float[] { 1, 2, 3, 4 });
+        GraphicCoordinatesData graphic = new GraphicCoordinatesData();
+        points.writeTo(1, graphic);
+        assertTrue(Arrays.equals(new float[] { 3, 4 }, graphic
+                .getGraphicData()));
+        try {
+            points.writeTo(2, graphic);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.open_ortho.dcm4ceph.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Digests computed while copying a file.
+ */
+public class DigestUtilsTest extends TestCase {
+
+    public void testDigestWhileTransferring() throws IOException {
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        File file = File.createTempFile("digest", ".jpg");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+
+        MessageDigest digest = DigestUtils.newDigest(DigestUtils.SHA256);
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            FileUtils.transferFully(in, 0, data.length, DigestUtils
+                    .digestingChannel(digest, Channels.newChannel(copy)));
+        }
+        assertTrue(Arrays.equals(data, copy.toByteArray()));
+        assertEquals(DigestUtils.toHex(DigestUtils.newDigest(
+                DigestUtils.SHA256).digest(data)), DigestUtils.toHex(digest
+                .digest()));
+        assertEquals(DigestUtils.toHex(DigestUtils.newDigest(
+                DigestUtils.SHA256).digest(data)), DigestUtils.digest(file,
+                DigestUtils.SHA256));
+    }
+
+    public void testToHex() {
+        assertEquals("00ff10", DigestUtils.toHex(new byte[] { 0, -1, 16 }));
+    }
+
+    public void testUnknownAlgorithm() {
+        try {
+            DigestUtils.newDigest("NO-SUCH-DIGEST");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
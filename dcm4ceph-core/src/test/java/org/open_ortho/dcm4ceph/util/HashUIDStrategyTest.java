@@ -0,0 +1,38 @@
+package org.open_ortho.dcm4ceph.util;
+
+import junit.framework.TestCase;
+
+/**
+ * UIDs derived from what identifies an object.
+ */
+public class HashUIDStrategyTest extends TestCase {
+
+    private static final String UID = "(0|[1-9][0-9]*)(\\.(0|[1-9][0-9]*))*";
+
+    public void testSameComponentsSameUID() {
+        HashUIDStrategy uids = new HashUIDStrategy();
+        String uid = uids.createUID("image", "P1", "1983-05-02", "L", "ab");
+        assertEquals(uid, new HashUIDStrategy().createUID("image", "P1",
+                "1983-05-02", "L", "ab"));
+        assertFalse(uid.equals(uids.createUID("image", "P1", "1983-05-02",
+                "PA", "ab")));
+        assertFalse(uids.createUID("ab", "c").equals(uids.createUID("a", "bc")));
+        assertTrue(uid.startsWith("2.25."));
+        assertTrue(uid.matches(UID));
+        assertTrue(uid.length() <= 64);
+    }
+
+    public void testRoot() {
+        String root = "1.2.826.0.1.3680043.9.9999";
+        String uid = new HashUIDStrategy(root).createUID("study", null);
+        assertTrue(uid.startsWith(root + "."));
+        assertTrue(uid.matches(UID));
+        assertTrue(uid.length() <= 64);
+        try {
+            new HashUIDStrategy("1.02");
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
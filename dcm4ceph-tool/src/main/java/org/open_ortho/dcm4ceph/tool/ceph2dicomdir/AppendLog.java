@@ -0,0 +1,209 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * A text file of records that is only ever appended to, as kept by
+ * {@link BatchJournal}, {@link DedupIndex} and {@link IncrementalState}.
+ * <p>
+ * Each record is a line of fields separated by tabs, with tabs, newlines and
+ * backslashes in the fields escaped. A line is written with a single write,
+ * and the file is synced to disk after every {@link #SYNC_ENTRIES} lines or
+ * {@link #SYNC_MILLIS} milliseconds, whichever comes first; after a power
+ * loss at most the last group of records is lost. A last line cut short by a
+ * crash is skipped when the file is loaded, and ended before the next record
+ * is appended.
+ *
+ * @author afm
+ *
+ */
+class AppendLog implements Closeable {
+
+	/**
+	 * Number of records after which the file is synced.
+	 */
+	static final int SYNC_ENTRIES = 64;
+
+	/**
+	 * Time after which pending records are synced.
+	 */
+	static final long SYNC_MILLIS = 1000;
+
+	private final FileChannel channel;
+
+	private int unsynced;
+
+	private long lastSync = System.currentTimeMillis();
+
+	/**
+	 * Open a log, creating it if it does not exist.
+	 *
+	 * @param file
+	 *            The file.
+	 * @param fields
+	 *            The number of fields of a record. Lines with another number
+	 *            of fields are skipped.
+	 * @param loader
+	 *            Called with the unescaped fields of every record already in
+	 *            the file, in order.
+	 */
+	AppendLog(File file, int fields, Consumer<String[]> loader)
+			throws IOException {
+		if (file.exists()) {
+			load(file, fields, loader);
+		}
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		terminateLastLine(file);
+	}
+
+	private static void load(File file, int count, Consumer<String[]> loader)
+			throws IOException {
+		try (BufferedReader in = Files.newBufferedReader(file.toPath(),
+				StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				// A crash may have cut the last line short.
+				if (fields.length != count) {
+					continue;
+				}
+				for (int i = 0; i < fields.length; i++) {
+					fields[i] = unescape(fields[i]);
+				}
+				loader.accept(fields);
+			}
+		}
+	}
+
+	/**
+	 * End a line cut short by a crash, so that the next record starts on a
+	 * line of its own.
+	 */
+	private void terminateLastLine(File file) throws IOException {
+		long size = channel.size();
+		if (size == 0) {
+			return;
+		}
+		ByteBuffer last = ByteBuffer.allocate(1);
+		try (FileChannel in = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ)) {
+			in.read(last, size - 1);
+		}
+		if (last.get(0) != '\n') {
+			channel.write(ByteBuffer.wrap(new byte[] { '\n' }));
+		}
+	}
+
+	/**
+	 * Append a record, and sync the file if enough records or time have
+	 * passed since the last sync.
+	 *
+	 * @param fields
+	 *            The fields of the record.
+	 */
+	synchronized void append(String... fields) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0) {
+				sb.append('\t');
+			}
+			sb.append(escape(fields[i]));
+		}
+		sb.append('\n');
+		ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(
+				StandardCharsets.UTF_8));
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		unsynced++;
+		long now = System.currentTimeMillis();
+		if (unsynced >= SYNC_ENTRIES || now - lastSync >= SYNC_MILLIS) {
+			sync(now);
+		}
+	}
+
+	/**
+	 * @return the number of records written since the last sync.
+	 */
+	synchronized int getUnsynced() {
+		return unsynced;
+	}
+
+	private void sync(long now) throws IOException {
+		channel.force(false);
+		unsynced = 0;
+		lastSync = now;
+	}
+
+	/**
+	 * Sync the pending records and close the file.
+	 */
+	public synchronized void close() throws IOException {
+		try {
+			if (unsynced > 0) {
+				sync(System.currentTimeMillis());
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	static String escape(String s) {
+		if (s.indexOf('\\') < 0 && s.indexOf('\t') < 0 && s.indexOf('\n') < 0) {
+			return s;
+		}
+		return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+	}
+
+	static String unescape(String s) {
+		if (s.indexOf('\\') < 0) {
+			return s;
+		}
+		StringBuilder sb = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\\' && i + 1 < s.length()) {
+				char n = s.charAt(++i);
+				sb.append(n == 't' ? '\t' : n == 'n' ? '\n' : n);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
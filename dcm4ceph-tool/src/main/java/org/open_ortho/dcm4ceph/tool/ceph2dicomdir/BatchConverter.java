@@ -0,0 +1,749 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.open_ortho.dcm4ceph.core.Cephalogram;
+import org.open_ortho.dcm4ceph.core.ConversionException;
+import org.open_ortho.dcm4ceph.core.ConversionResult;
+import org.open_ortho.dcm4ceph.core.DicomDirBuilder;
+import org.open_ortho.dcm4ceph.util.DigestUtils;
+import org.open_ortho.dcm4ceph.util.FileUtils;
+import org.open_ortho.dcm4ceph.util.Log;
+
+/**
+ * Converts many cephalograms in one run.
+ * <p>
+ * Every input image is converted with {@link Cephalogram#writeDCM(File)} on a
+ * bounded pool of worker threads. The queue in front of the pool is kept
+ * short, so that listing a whole film archive does not pile up tasks in
+ * memory: when the queue is full, the thread submitting the work converts the
+ * next file itself.
+ * <p>
+ * A file that cannot be converted does not stop the batch: its failure is
+ * recorded in a {@link ConversionResult}, and the worker goes on with the next
+ * file. The results can be written to a report at the end of the run.
+ * <p>
+ * With an output directory, images with the same name in different
+ * directories would be written to the same DICOM file. Only the first of them
+ * in the order of the inputs is converted; the others fail.
+ * <p>
+ * On Java 21 and later, the conversions can instead run on virtual threads,
+ * one per file, which suits storage that is slow to answer, such as NFS. The
+ * number of files open at the same time is then limited by a semaphore, see
+ * {@link #setMaxOpenFiles(int)}.
+ * <p>
+ * The images and their properties can also be read from a manifest, see
+ * {@link ManifestReader}.
+ * <p>
+ * With a {@link BatchJournal}, every converted file is recorded, and the files
+ * already recorded are skipped, so that an interrupted batch can be run again
+ * and only converts what is left.
+ * <p>
+ * With a {@link DedupIndex}, every image is hashed before it is converted,
+ * and an image whose content was already converted, in this run or an
+ * earlier one, is not converted again. The digest is passed on to the
+ * conversion, so the image is not read again for deterministic UIDs or a
+ * {@link DigestUtils#SHA256} digest.
+ * <p>
+ * In incremental mode, an image is only converted if its DICOM file is
+ * missing, or was not written from the image and properties as they are now,
+ * see {@link IncrementalState}. DICOM files are written under a temporary
+ * name and renamed when complete, so that a file cut short by a crash is
+ * never taken for an up to date one.
+ *
+ * @author afm
+ *
+ */
+public class BatchConverter {
+
+	private static final String[] IMAGE_EXTENSIONS = { ".jpg", ".jpeg" };
+
+	/**
+	 * Files a conversion holds open at the same time: the image and the DICOM
+	 * file.
+	 */
+	private static final int FILES_PER_CONVERSION = 2;
+
+	/**
+	 * Suffix of DICOM files being written.
+	 */
+	private static final String PART_SUFFIX = ".part";
+
+	private final File outputDirectory;
+
+	private final int threads;
+
+	private boolean virtualThreads;
+
+	private int maxOpenFiles = 256;
+
+	private DicomDirBuilder dicomdir;
+
+	private String digestAlgorithm;
+
+	private BatchJournal journal;
+
+	private DedupIndex dedup;
+
+	private DedupIndex.Mode dedupMode = DedupIndex.Mode.REFERENCE;
+
+	private IncrementalState incremental;
+
+	private final AtomicInteger converted = new AtomicInteger();
+
+	private final AtomicLong bytesIn = new AtomicLong();
+
+	private final AtomicLong bytesOut = new AtomicLong();
+
+	private final AtomicInteger failed = new AtomicInteger();
+
+	private final AtomicInteger skipped = new AtomicInteger();
+
+	private final AtomicInteger duplicates = new AtomicInteger();
+
+	private final AtomicInteger upToDate = new AtomicInteger();
+
+	private final List<ConversionResult> results = Collections
+			.synchronizedList(new ArrayList<ConversionResult>());
+
+	/**
+	 * The input each DICOM file of this run is written from.
+	 */
+	private final Map<File, File> outputs = new ConcurrentHashMap<File, File>();
+
+	private int submitted;
+
+	private long elapsedNanos;
+
+	/**
+	 * @param outputDirectory
+	 *            Directory where to write the DICOM files. Can be
+	 *            {@code null}, in which case each file is written next to its
+	 *            image.
+	 * @param threads
+	 *            Number of worker threads. Values smaller than one select the
+	 *            number of available processors.
+	 */
+	public BatchConverter(File outputDirectory, int threads) {
+		this.outputDirectory = outputDirectory;
+		this.threads = threads > 0 ? threads : Runtime.getRuntime()
+				.availableProcessors();
+	}
+
+	/**
+	 * Run each conversion on its own virtual thread.
+	 *
+	 * @param virtualThreads
+	 *            {@code true} to use virtual threads instead of the pool of
+	 *            worker threads.
+	 * @throws UnsupportedOperationException
+	 *             if this Java runtime has no virtual threads
+	 * @see #setMaxOpenFiles(int)
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		if (virtualThreads && !isVirtualThreadsSupported()) {
+			throw new UnsupportedOperationException(
+					"Virtual threads require Java 21 or later.");
+		}
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * @return whether this Java runtime has virtual threads.
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return ConversionExecutors.supportsVirtualThreads();
+	}
+
+	/**
+	 * Limit the number of files open at the same time when running on virtual
+	 * threads. Defaults to 256.
+	 *
+	 * @param maxOpenFiles
+	 *            The limit. Each conversion holds two files open.
+	 */
+	public void setMaxOpenFiles(int maxOpenFiles) {
+		this.maxOpenFiles = maxOpenFiles;
+	}
+
+	/**
+	 * Compute digests of every input and output while converting.
+	 *
+	 * @param algorithm
+	 *            The digest algorithm, such as {@code SHA-256}, or
+	 *            {@code null} not to compute digests.
+	 * @see Cephalogram#writeDCM(File, String)
+	 */
+	public void setDigestAlgorithm(String algorithm) {
+		if (algorithm != null) {
+			// Fail now rather than on every file.
+			DigestUtils.newDigest(algorithm);
+		}
+		this.digestAlgorithm = algorithm;
+	}
+
+	/**
+	 * Record every converted file in a journal, and skip the files it already
+	 * holds. The journal needs the digest of every input: if none is set,
+	 * {@link DigestUtils#SHA256} is used.
+	 *
+	 * @param journal
+	 *            The journal, or {@code null}. It is not closed.
+	 */
+	public void setJournal(BatchJournal journal) {
+		this.journal = journal;
+		if (journal != null && digestAlgorithm == null) {
+			digestAlgorithm = DigestUtils.SHA256;
+		}
+	}
+
+	/**
+	 * Do not convert images whose content is already in an index, and add
+	 * every converted image to it.
+	 *
+	 * @param dedup
+	 *            The index, or {@code null}. It is not closed.
+	 * @param mode
+	 *            Whether duplicates are left out of the results, or recorded
+	 *            with the DICOM file holding their content.
+	 */
+	public void setDedupIndex(DedupIndex dedup, DedupIndex.Mode mode) {
+		this.dedup = dedup;
+		this.dedupMode = mode;
+	}
+
+	/**
+	 * Only convert images whose DICOM file is missing or out of date, and
+	 * record what every written file was written from.
+	 *
+	 * @param incremental
+	 *            The state of earlier runs, or {@code null} to convert every
+	 *            image. It is not closed.
+	 */
+	public void setIncremental(IncrementalState incremental) {
+		this.incremental = incremental;
+	}
+
+	/**
+	 * Add every converted file to a DICOMDIR.
+	 *
+	 * @param dicomdir
+	 *            The DICOMDIR of the output directory, or {@code null}.
+	 */
+	public void setDicomDir(DicomDirBuilder dicomdir) {
+		this.dicomdir = dicomdir;
+	}
+
+	/**
+	 * List the images described by a batch input specification.
+	 * <p>
+	 * The specification is one of:
+	 * <ul>
+	 * <li>a directory, which is searched recursively for JPEG images;
+	 * <li>a glob pattern such as {@code scans/*.jpg};
+	 * <li>a list file with one image path per line. Empty lines and lines
+	 * starting with {@code #} are ignored.
+	 * </ul>
+	 *
+	 * @param spec directory, glob pattern or list file
+	 * @return the images to convert, in a stable order
+	 * @throws IOException if the directory or list file cannot be read
+	 */
+	public static List<File> listInputs(String spec) throws IOException {
+		List<File> inputs = new ArrayList<File>();
+		File specFile = new File(spec);
+		if (specFile.isDirectory()) {
+			try (Stream<Path> paths = Files.walk(specFile.toPath())) {
+				paths.filter(Files::isRegularFile)
+						.filter(BatchConverter::isImage)
+						.forEach(p -> inputs.add(p.toFile()));
+			}
+		} else if (isGlob(spec)) {
+			int cut = lastSeparatorBeforeGlob(spec);
+			Path base = cut < 0 ? Paths.get(".") : Paths.get(spec.substring(0,
+					cut + 1));
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher(
+					"glob:" + spec.substring(cut + 1));
+			try (Stream<Path> paths = Files.walk(base)) {
+				paths.filter(Files::isRegularFile)
+						.filter(p -> matcher.matches(base.relativize(p)))
+						.forEach(p -> inputs.add(p.toFile()));
+			}
+		} else {
+			try (BufferedReader in = Files.newBufferedReader(specFile.toPath(),
+					StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					line = line.trim();
+					if (line.length() > 0 && !line.startsWith("#")) {
+						inputs.add(new File(line));
+					}
+				}
+			}
+			return inputs;
+		}
+		Collections.sort(inputs);
+		return inputs;
+	}
+
+	/**
+	 * Convert all passed images and wait for the last one to complete.
+	 *
+	 * @param inputs the images to convert
+	 * @throws InterruptedException if interrupted while waiting for the pool
+	 */
+	public void run(List<File> inputs) throws InterruptedException {
+		final Iterator<File> files = inputs.iterator();
+		run(new Iterator<Runnable>() {
+			public boolean hasNext() {
+				return files.hasNext();
+			}
+
+			public Runnable next() {
+				return task(files.next(), null);
+			}
+		}, inputs.size() + " files");
+	}
+
+	/**
+	 * Convert the images of a manifest, with the properties of each row, and
+	 * wait for the last one to complete.
+	 * <p>
+	 * Rows are read while the images are converted, and only as fast as they
+	 * are converted, so the manifest is never held in memory. A row that
+	 * cannot be parsed is recorded as a failure of the manifest.
+	 *
+	 * @param manifest the manifest to read. It is not closed.
+	 * @throws InterruptedException if interrupted while waiting for the pool
+	 * @throws IOException if the manifest cannot be read
+	 */
+	public void run(final ManifestReader manifest) throws InterruptedException,
+			IOException {
+		try {
+			run(new Iterator<Runnable>() {
+				private Runnable next;
+
+				public boolean hasNext() {
+					if (next == null) {
+						next = read(manifest);
+					}
+					return next != null;
+				}
+
+				public Runnable next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					Runnable task = next;
+					next = null;
+					return task;
+				}
+			}, "the images of " + manifest.getManifest());
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private Runnable read(ManifestReader manifest) {
+		while (true) {
+			try {
+				final ManifestReader.Row row = manifest.next();
+				if (row == null) {
+					return null;
+				}
+				return task(row.getImage(), row.getProperties());
+			} catch (ConversionException e) {
+				ConversionResult result = ConversionResult.failure(manifest
+						.getManifest(), e, 0);
+				Log.err("Could not read " + result);
+				failed.incrementAndGet();
+				results.add(result);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	private void run(Iterator<Runnable> tasks, String what)
+			throws InterruptedException {
+		if (virtualThreads) {
+			runOnVirtualThreads(tasks, what);
+		} else {
+			runOnPool(tasks, what);
+		}
+	}
+
+	private void runOnPool(Iterator<Runnable> tasks, String what)
+			throws InterruptedException {
+		Log.info("Converting " + what + " on " + threads + " threads.");
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(
+						threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+		long start = System.nanoTime();
+		try {
+			while (tasks.hasNext()) {
+				submitted++;
+				pool.execute(tasks.next());
+			}
+		} finally {
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			elapsedNanos = System.nanoTime() - start;
+		}
+	}
+
+	private void runOnVirtualThreads(Iterator<Runnable> tasks, String what)
+			throws InterruptedException {
+		int conversions = Math.max(1, maxOpenFiles / FILES_PER_CONVERSION);
+		Log.info("Converting " + what + " on virtual threads, " + conversions
+				+ " at a time.");
+		ExecutorService executor = ConversionExecutors
+				.newVirtualThreadPerTaskExecutor();
+		// A thread is started only when a permit is free, so that a long list
+		// of inputs does not start as many threads, or open as many files.
+		final Semaphore permits = new Semaphore(conversions);
+		long start = System.nanoTime();
+		try {
+			while (tasks.hasNext()) {
+				final Runnable task = tasks.next();
+				submitted++;
+				permits.acquire();
+				executor.execute(() -> {
+					try {
+						task.run();
+					} finally {
+						permits.release();
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			elapsedNanos = System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Make the task converting an image. It is called in the order of the
+	 * inputs, by the thread submitting the tasks, so that of two images with
+	 * the same DICOM file, always the first one is converted.
+	 *
+	 * @param properties
+	 *            The properties of the image, or {@code null} to read its
+	 *            .properties file.
+	 */
+	private Runnable task(final File input, final Properties properties) {
+		final File dcmFile = outputDirectory == null ? FileUtils
+				.getDCMFile(input) : new File(outputDirectory, FileUtils
+				.getDCMFileName(input));
+		File other = outputs.putIfAbsent(dcmFile.getAbsoluteFile(), input
+				.getAbsoluteFile());
+		if (other != null && !other.equals(input.getAbsoluteFile())) {
+			return () -> {
+				ConversionResult result = ConversionResult.failure(input,
+						new ConversionException(input, dcmFile
+								+ " is already written from " + other), 0);
+				Log.err("Could not convert " + result);
+				failed.incrementAndGet();
+				results.add(result);
+			};
+		}
+		return () -> convert(input, properties, dcmFile);
+	}
+
+	/**
+	 * @param properties
+	 *            The properties of the image, or {@code null} to read its
+	 *            .properties file.
+	 * @param dcmFile
+	 *            The DICOM file to write.
+	 */
+	private void convert(File input, Properties properties, File dcmFile) {
+		if (journal != null && journal.isDone(input)) {
+			skipped.incrementAndGet();
+			return;
+		}
+		File propertiesFile = FileUtils.getPropertiesFile(input);
+		IncrementalState.Sources sources = null;
+		if (incremental != null) {
+			sources = IncrementalState.sources(input, propertiesFile,
+					properties);
+			if (incremental.isUpToDate(dcmFile, sources)) {
+				upToDate.incrementAndGet();
+				return;
+			}
+		}
+		long start = System.nanoTime();
+		String digest = null;
+		try {
+			if (properties == null && !propertiesFile.exists()) {
+				throw new ConversionException(input, "missing "
+						+ propertiesFile.getName());
+			}
+			if (dedup != null) {
+				String hash = DigestUtils.digest(input, DedupIndex.ALGORITHM);
+				DedupIndex.Entry original = dedup.claim(hash);
+				if (original != null) {
+					duplicate(input, original, System.nanoTime() - start);
+					return;
+				}
+				digest = hash;
+			}
+			// The digest of the index is not computed again for the UIDs or
+			// the results.
+			Cephalogram ceph = new Cephalogram(input, properties, digest);
+			ConversionResult written = writeDCM(ceph, dcmFile,
+					digestAlgorithm);
+			ConversionResult result = ConversionResult.success(input, dcmFile,
+					System.nanoTime() - start, written.getSourceDigest(),
+					written.getOutputDigest());
+			if (dicomdir != null) {
+				dicomdir.add(ceph.getDicomObject(), dcmFile);
+			}
+			if (dedup != null) {
+				dedup.record(digest, ceph.getUID(), dcmFile);
+				digest = null;
+			}
+			if (journal != null) {
+				journal.record(input, result.getSourceDigest(), dcmFile,
+						ceph.getUID());
+			}
+			if (incremental != null) {
+				incremental.record(dcmFile, sources);
+			}
+			bytesIn.addAndGet(input.length());
+			bytesOut.addAndGet(dcmFile.length());
+			converted.incrementAndGet();
+			results.add(result);
+		} catch (Exception e) {
+			if (digest != null) {
+				dedup.release(digest);
+			}
+			ConversionResult result = ConversionResult.failure(input, e,
+					System.nanoTime() - start);
+			Log.err("Could not convert " + result);
+			failed.incrementAndGet();
+			results.add(result);
+		}
+	}
+
+	/**
+	 * Write a cephalogram under a temporary name, and give the file its name
+	 * once it is complete. A file cut short by a crash, or seen by another
+	 * process while it is written, never has the name of a DICOM file.
+	 *
+	 * @param algorithm
+	 *            The digest algorithm, or {@code null} not to compute digests.
+	 * @return the result of the write, with the digests if computed
+	 */
+	static ConversionResult writeDCM(Cephalogram ceph, File dcmFile,
+			String algorithm) throws IOException {
+		long start = System.nanoTime();
+		File partFile = new File(dcmFile.getPath() + PART_SUFFIX);
+		try {
+			String sourceDigest = null, outputDigest = null;
+			if (algorithm != null) {
+				ConversionResult written = ceph.writeDCM(partFile, algorithm);
+				sourceDigest = written.getSourceDigest();
+				outputDigest = written.getOutputDigest();
+			} else {
+				ceph.writeDCM(partFile);
+			}
+			Files.move(partFile.toPath(), dcmFile.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			return ConversionResult.success(ceph.getImageFile(), dcmFile,
+					System.nanoTime() - start, sourceDigest, outputDigest);
+		} finally {
+			partFile.delete();
+		}
+	}
+
+	private void duplicate(File input, DedupIndex.Entry original,
+			long elapsedNanos) throws IOException {
+		duplicates.incrementAndGet();
+		if (journal != null) {
+			journal.record(input, original.getDigest(), original.getOutput(),
+					original.getSOPInstanceUID());
+		}
+		if (dedupMode == DedupIndex.Mode.REFERENCE) {
+			results.add(ConversionResult.duplicate(input, original.getOutput(),
+					original.getSOPInstanceUID(), elapsedNanos, original
+							.getDigest()));
+		}
+	}
+
+	/**
+	 * Print the throughput and the failures of the last run.
+	 */
+	public void printSummary() {
+		double seconds = Math.max(elapsedNanos / 1e9, 1e-9);
+		double mbytes = bytesIn.get() / (1024.0 * 1024.0);
+		Log.info(String.format(
+				"Converted %d of %d files in %.1f s: %.1f files/s, %.1f MB/s"
+						+ " read, %.1f MB written.", converted.get(),
+				submitted, seconds, converted.get() / seconds, mbytes / seconds,
+				bytesOut.get() / (1024.0 * 1024.0)));
+		if (skipped.get() > 0) {
+			Log.info("Skipped " + skipped.get()
+					+ " files already converted according to the journal.");
+		}
+		if (upToDate.get() > 0) {
+			Log.info("Skipped " + upToDate.get()
+					+ " files whose DICOM file is up to date.");
+		}
+		if (duplicates.get() > 0) {
+			Log.info("Did not convert " + duplicates.get()
+					+ " files with the same content as a converted file.");
+		}
+		if (failed.get() == 0) {
+			return;
+		}
+		Log.warn(failed.get() + " files failed:");
+		synchronized (results) {
+			for (ConversionResult result : results) {
+				if (!result.isSuccess()) {
+					Log.warn("  " + result);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the result of every file of the last run.
+	 * <p>
+	 * The report is a CSV file with one line per input: status, input, output,
+	 * seconds taken, for failures the reason and, if computed, the digests of
+	 * the input and of the output. The status is {@code OK}, {@code FAILED}
+	 * or {@code DUPLICATE}; the output of a duplicate is the DICOM file holding
+	 * its content.
+	 *
+	 * @param report the file to write
+	 * @throws IOException if the report cannot be written
+	 */
+	public void writeReport(File report) throws IOException {
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(
+				report.toPath(), StandardCharsets.UTF_8))) {
+			out.println("status,input,output,seconds,message,source_digest,output_digest");
+			synchronized (results) {
+				for (ConversionResult result : results) {
+					out.println(status(result) + ","
+							+ csv(result.getInput()) + ","
+							+ csv(result.getOutput()) + ","
+							+ String.format("%.3f", result.getElapsedNanos() / 1e9)
+							+ "," + csv(result.getMessage()) + ","
+							+ csv(result.getSourceDigest()) + ","
+							+ csv(result.getOutputDigest()));
+				}
+			}
+		}
+	}
+
+	private static String status(ConversionResult result) {
+		if (result.isDuplicate()) {
+			return "DUPLICATE";
+		}
+		return result.isSuccess() ? "OK" : "FAILED";
+	}
+
+	private static String csv(Object value) {
+		if (value == null) {
+			return "";
+		}
+		String s = value.toString();
+		if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+			return s;
+		}
+		return '"' + s.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * @return the results of the last run, in order of completion.
+	 */
+	public List<ConversionResult> getResults() {
+		synchronized (results) {
+			return new ArrayList<ConversionResult>(results);
+		}
+	}
+
+	public int getFailureCount() {
+		return failed.get();
+	}
+
+	static boolean isImage(Path path) {
+		String name = path.getFileName().toString().toLowerCase();
+		for (String ext : IMAGE_EXTENSIONS) {
+			if (name.endsWith(ext)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isGlob(String spec) {
+		return spec.indexOf('*') >= 0 || spec.indexOf('?') >= 0
+				|| spec.indexOf('[') >= 0 || spec.indexOf('{') >= 0;
+	}
+
+	private static int lastSeparatorBeforeGlob(String spec) {
+		int firstGlob = spec.length();
+		for (char c : new char[] { '*', '?', '[', '{' }) {
+			int i = spec.indexOf(c);
+			if (i >= 0 && i < firstGlob) {
+				firstGlob = i;
+			}
+		}
+		return Math.max(spec.lastIndexOf('/', firstGlob),
+				spec.lastIndexOf(File.separatorChar, firstGlob));
+	}
+}
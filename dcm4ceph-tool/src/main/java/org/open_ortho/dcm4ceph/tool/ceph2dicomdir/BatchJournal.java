@@ -0,0 +1,204 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.open_ortho.dcm4ceph.util.Log;
+
+/**
+ * Records the files a batch has converted, so that a run that was stopped can
+ * be resumed.
+ * <p>
+ * The journal is a text file with one line per converted file: the input
+ * path, its size and modification time, the digest of the input, the output
+ * path and the SOP Instance UID, separated by tabs. An input that has changed
+ * since it was recorded is converted again. Lines are only ever appended, and
+ * synced to disk in groups, see {@link AppendLog}; after a power loss at most
+ * the last group is converted again.
+ * <p>
+ * When the journal is opened, its lines are loaded into a hash table, so that
+ * finding out whether an input was already converted costs the same for every
+ * file, whatever the size of the batch.
+ *
+ * @author afm
+ *
+ */
+public class BatchJournal implements Closeable {
+
+	/**
+	 * Number of entries after which the journal is synced.
+	 */
+	public static final int SYNC_ENTRIES = AppendLog.SYNC_ENTRIES;
+
+	/**
+	 * Time after which pending entries are synced.
+	 */
+	public static final long SYNC_MILLIS = AppendLog.SYNC_MILLIS;
+
+	/**
+	 * A converted file.
+	 */
+	public static class Entry {
+		private final String input;
+		private final long size;
+		private final long lastModified;
+		private final String digest;
+		private final String output;
+		private final String sopInstanceUID;
+
+		Entry(String input, long size, long lastModified, String digest,
+				String output, String sopInstanceUID) {
+			this.input = input;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.digest = digest;
+			this.output = output;
+			this.sopInstanceUID = sopInstanceUID;
+		}
+
+		public String getInput() {
+			return input;
+		}
+
+		public String getDigest() {
+			return digest;
+		}
+
+		/**
+		 * @return whether a file has the size and modification time its entry
+		 *         was recorded with.
+		 */
+		boolean isUnchanged(File file) {
+			return file.length() == size && file.lastModified() == lastModified;
+		}
+
+		public File getOutput() {
+			return new File(output);
+		}
+
+		public String getSOPInstanceUID() {
+			return sopInstanceUID;
+		}
+	}
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	private final AppendLog log;
+
+	/**
+	 * Open a journal, creating it if it does not exist.
+	 *
+	 * @param file
+	 *            The journal file.
+	 */
+	public BatchJournal(File file) throws IOException {
+		log = new AppendLog(file, 6, this::load);
+		Log.info("Journal " + file + " holds " + entries.size()
+				+ " converted files.");
+	}
+
+	private void load(String[] fields) {
+		try {
+			Entry e = new Entry(fields[0], Long.parseLong(fields[1]),
+					Long.parseLong(fields[2]), fields[3], fields[4], fields[5]);
+			entries.put(e.input, e);
+		} catch (NumberFormatException e) {
+			// not an entry
+		}
+	}
+
+	private static String key(File input) {
+		return input.toPath().toAbsolutePath().normalize().toString();
+	}
+
+	/**
+	 * @param input
+	 *            An input of the batch.
+	 * @return the entry of the input, or {@code null} if it was not
+	 *         converted.
+	 */
+	public synchronized Entry get(File input) {
+		return entries.get(key(input));
+	}
+
+	/**
+	 * @param input
+	 *            An input of the batch.
+	 * @return whether the input was converted and has not changed since, and
+	 *         its output is still there.
+	 */
+	public boolean isDone(File input) {
+		Entry e = get(input);
+		return e != null && e.isUnchanged(input) && e.getOutput().exists();
+	}
+
+	/**
+	 * @return the number of converted files in the journal.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Record a converted file, with its current size and modification time.
+	 *
+	 * @param input
+	 *            The converted file.
+	 * @param digest
+	 *            The digest of the input, in hex.
+	 * @param output
+	 *            The DICOM file written.
+	 * @param sopInstanceUID
+	 *            The SOP Instance UID of the DICOM file.
+	 */
+	public synchronized void record(File input, String digest, File output,
+			String sopInstanceUID) throws IOException {
+		Entry e = new Entry(key(input), input.length(), input.lastModified(),
+				digest, key(output), sopInstanceUID);
+		log.append(e.input, Long.toString(e.size),
+				Long.toString(e.lastModified), digest, e.output, sopInstanceUID);
+		entries.put(e.input, e);
+	}
+
+	/**
+	 * @return the number of entries written since the last sync.
+	 */
+	int getUnsynced() {
+		return log.getUnsynced();
+	}
+
+	/**
+	 * Sync the pending entries and close the journal.
+	 */
+	public void close() throws IOException {
+		log.close();
+	}
+}
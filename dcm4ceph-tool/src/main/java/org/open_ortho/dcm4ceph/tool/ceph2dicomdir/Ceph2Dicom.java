@@ -30,12 +30,19 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 import java.util.Properties;
 
 import org.apache.commons.cli.*;
 
 import org.open_ortho.dcm4ceph.core.BBCephalogramSet;
 import org.open_ortho.dcm4ceph.core.Cephalogram;
+import org.open_ortho.dcm4ceph.core.ConversionException;
+import org.open_ortho.dcm4ceph.core.DicomDirBuilder;
+import org.open_ortho.dcm4ceph.core.JpegSegmentFilter;
+import org.open_ortho.dcm4ceph.util.DcmUtils;
+import org.open_ortho.dcm4ceph.util.DigestUtils;
+import org.open_ortho.dcm4ceph.util.HashUIDStrategy;
 import org.open_ortho.dcm4ceph.util.Log;
 
 /**
@@ -80,17 +87,122 @@ public class Ceph2Dicom {
 				.hasArg()
 				.desc("directory where to save DICOM into. Defaults to this one.")
 				.build();
+		Option batch = Option.builder("b")
+				.longOpt("batch")
+				.argName("input")
+				.hasArg()
+				.desc("Convert every image of a directory, a glob pattern or a list file with one image per line.")
+				.build();
+		Option manifest = Option.builder("m")
+				.longOpt("manifest")
+				.argName("file")
+				.hasArg()
+				.desc("Convert the images listed in a CSV or JSON Lines manifest, whose rows hold the image path in an 'image' column and the keys of a .properties file. Takes the same options as --batch.")
+				.build();
+		Option threads = Option.builder("t")
+				.longOpt("threads")
+				.argName("n")
+				.hasArg()
+				.desc("Number of conversions to run in parallel in --batch mode. Defaults to the number of processors.")
+				.build();
+		Option watch = Option.builder("w")
+				.longOpt("watch")
+				.argName("directory")
+				.hasArg()
+				.desc("Keep running and convert every image dropped into the directory, with its .properties file, into --outputdir.")
+				.build();
 		Options options = new Options();
 		options.addOption("B", "boltonset", false,
 				"create DICOMDIR of a Bolton Set with PA, Lateral, and Fiducial. Requires specifying --file twice: PA, Lateral and --fiducialfile.");
 		options.addOption(inputfile);
 		options.addOption(fiducialfile);
+		options.addOption(outputdir);
+		options.addOption(batch);
+		options.addOption(manifest);
+		options.addOption(watch);
+		options.addOption(threads);
+		options.addOption(null, "dicomdir", false,
+				"In --batch mode, also write a DICOMDIR of all converted files into --outputdir.");
+		options.addOption(Option.builder()
+				.longOpt("report")
+				.argName("file")
+				.hasArg()
+				.desc("In --batch mode, write the result of every file to a CSV report.")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("digest")
+				.argName("algorithm")
+				.hasArg()
+				.optionalArg(true)
+				.desc("In --batch mode, compute digests of every image and DICOM file while writing, for the --report. Defaults to SHA-256.")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("journal")
+				.argName("file")
+				.hasArg()
+				.desc("In --batch mode, record every converted file in a journal, and skip the files it already holds.")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("dedup")
+				.argName("file")
+				.hasArg()
+				.desc("In --batch mode, do not convert images whose content is already in this index, and add converted images to it.")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("duplicates")
+				.argName("mode")
+				.hasArg()
+				.desc("With --dedup, 'reference' lists duplicates in the --report with the DICOM file holding their content, 'skip' leaves them out. Defaults to reference.")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("incremental")
+				.argName("file")
+				.hasArg()
+				.optionalArg(true)
+				.desc("In --batch mode, only convert images whose DICOM file is missing, or whose image or properties changed since it was written, as recorded in this file. Defaults to " + IncrementalState.DEFAULT_NAME + " in --outputdir, or else the current directory.")
+				.build());
+		options.addOption(null, "virtual-threads", false,
+				"In --batch mode, run each conversion on a virtual thread. Requires Java 21 or later.");
+		options.addOption(Option.builder()
+				.longOpt("max-open-files")
+				.argName("n")
+				.hasArg()
+				.desc("With --virtual-threads, the number of files open at the same time. Defaults to 256.")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("fragment-size")
+				.argName("KB")
+				.hasArg()
+				.desc("Split the pixel data into fragments of this many kilobytes. By default each image is a single fragment.")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("strip-segments")
+				.argName("markers")
+				.hasArg()
+				.optionalArg(true)
+				.desc("Leave JPEG marker segments out of the pixel data, e.g. APP1-APP15,COM. Defaults to APP1-APP13,APP15,COM.")
+				.build());
+		options.addOption(Option.builder()
+				.longOpt("deterministic-uids")
+				.argName("root")
+				.hasArg()
+				.optionalArg(true)
+				.desc("Derive Study, Series and SOP Instance UIDs from the patient ID, study date, cephalogram type and image content, under this UID root, so that converting again gives the same UIDs. Defaults to 2.25.")
+				.build());
+		options.addOption(null, "template", false,
+				"Encode the attributes common to all cephalograms once, and reuse them for every file.");
 
 		CommandLine line;
+		int nthreads, maxOpenFiles, fragmentKB;
 		try {
 			line = parser.parse(options, args);
+			nthreads = getPositiveValue(line, "threads", Integer.MAX_VALUE);
+			maxOpenFiles = getPositiveValue(line, "max-open-files",
+					Integer.MAX_VALUE);
+			fragmentKB = getPositiveValue(line, "fragment-size",
+					Integer.MAX_VALUE / 1024);
 		} catch (ParseException exp) {
-			exp.printStackTrace();
+			Log.err(exp.getMessage());
 			Log.err("Incorrect Arguments.");
 			HelpFormatter formatter = new HelpFormatter();
 			formatter.printHelp("ceph2dicom", options);
@@ -98,6 +210,35 @@ public class Ceph2Dicom {
 			return;
 		}
 
+		if (line.hasOption("deterministic-uids")) {
+			String root = line.getOptionValue("deterministic-uids");
+			try {
+				DcmUtils.setUIDStrategy(root == null ? new HashUIDStrategy()
+						: new HashUIDStrategy(root));
+			} catch (IllegalArgumentException e) {
+				Log.err(e.getMessage());
+				System.exit(1);
+				return;
+			}
+		}
+		if (line.hasOption("template")) {
+			Cephalogram.setHeaderTemplateEnabled(true);
+		}
+		if (line.hasOption("strip-segments")) {
+			String markers = line.getOptionValue("strip-segments");
+			try {
+				Cephalogram.setDefaultSegmentFilter(markers == null ? JpegSegmentFilter.METADATA
+						: JpegSegmentFilter.parse(markers));
+			} catch (IllegalArgumentException e) {
+				Log.err(e.getMessage());
+				System.exit(1);
+				return;
+			}
+		}
+		if (fragmentKB > 0) {
+			Cephalogram.setDefaultFragmentSize(fragmentKB * 1024L);
+		}
+
 		try {
 			if (line.hasOption("boltonset")) {
 				// boltonset mode of operation
@@ -111,19 +252,143 @@ public class Ceph2Dicom {
 						+ "BBcephset"));
 				return;
 			}
+			if (line.hasOption(watch)) {
+				// watch folder mode of operation
+				if (!line.hasOption(outputdir)) {
+					Log.err("--watch requires --outputdir.");
+					System.exit(1);
+					return;
+				}
+				File outputDirectory = new File(line.getOptionValue(outputdir));
+				outputDirectory.mkdirs();
+				new WatchFolder(new File(line.getOptionValue(watch)),
+						outputDirectory, nthreads).run();
+				return;
+			}
+			if (line.hasOption(batch) || line.hasOption(manifest)) {
+				// batch mode of operation
+				File outputDirectory = null;
+				if (line.hasOption(outputdir)) {
+					outputDirectory = new File(line.getOptionValue(outputdir));
+					outputDirectory.mkdirs();
+				}
+				List<File> inputs = null;
+				ManifestReader manifestReader = null;
+				if (line.hasOption(manifest)) {
+					manifestReader = new ManifestReader(new File(line.getOptionValue(manifest)));
+				} else {
+					inputs = BatchConverter.listInputs(line.getOptionValue(batch));
+				}
+				BatchConverter converter = new BatchConverter(outputDirectory, nthreads);
+				if (line.hasOption("digest")) {
+					String algorithm = line.getOptionValue("digest");
+					try {
+						converter.setDigestAlgorithm(algorithm == null ? DigestUtils.SHA256
+								: algorithm);
+					} catch (IllegalArgumentException e) {
+						Log.err(e.getMessage());
+						System.exit(1);
+						return;
+					}
+				}
+				if (line.hasOption("virtual-threads")) {
+					if (!BatchConverter.isVirtualThreadsSupported()) {
+						Log.err("--virtual-threads requires Java 21 or later.");
+						System.exit(1);
+						return;
+					}
+					converter.setVirtualThreads(true);
+					if (maxOpenFiles > 0) {
+						converter.setMaxOpenFiles(maxOpenFiles);
+					}
+				}
+				DicomDirBuilder dicomdir = null;
+				if (line.hasOption("dicomdir")) {
+					if (outputDirectory == null) {
+						Log.err("--dicomdir requires --outputdir.");
+						System.exit(1);
+						return;
+					}
+					dicomdir = new DicomDirBuilder(new File(outputDirectory, "DICOMDIR"));
+					converter.setDicomDir(dicomdir);
+				}
+				BatchJournal journal = null;
+				if (line.hasOption("journal")) {
+					journal = new BatchJournal(new File(line.getOptionValue("journal")));
+					converter.setJournal(journal);
+				}
+				IncrementalState incremental = null;
+				if (line.hasOption("incremental")) {
+					String state = line.getOptionValue("incremental");
+					incremental = new IncrementalState(state != null ? new File(state)
+							: new File(outputDirectory, IncrementalState.DEFAULT_NAME));
+					converter.setIncremental(incremental);
+				}
+				DedupIndex dedup = null;
+				if (line.hasOption("dedup")) {
+					DedupIndex.Mode mode = DedupIndex.Mode.REFERENCE;
+					if (line.hasOption("duplicates")) {
+						try {
+							mode = DedupIndex.Mode.valueOf(line.getOptionValue(
+									"duplicates").toUpperCase());
+						} catch (IllegalArgumentException e) {
+							Log.err("--duplicates must be skip or reference.");
+							System.exit(1);
+							return;
+						}
+					}
+					dedup = new DedupIndex(new File(line.getOptionValue("dedup")));
+					converter.setDedupIndex(dedup, mode);
+				}
+				try {
+					if (manifestReader != null) {
+						converter.run(manifestReader);
+					} else {
+						converter.run(inputs);
+					}
+				} finally {
+					if (dicomdir != null) {
+						dicomdir.close();
+					}
+					if (journal != null) {
+						journal.close();
+					}
+					if (incremental != null) {
+						incremental.close();
+					}
+					if (dedup != null) {
+						dedup.close();
+					}
+					if (manifestReader != null) {
+						manifestReader.close();
+					}
+				}
+				converter.printSummary();
+				if (line.hasOption("report")) {
+					converter.writeReport(new File(line.getOptionValue("report")));
+				}
+				if (converter.getFailureCount() > 0) {
+					System.exit(2);
+				}
+				return;
+			}
 			// single file mode of operation
 			Log.info("Converting single file to DCM.");
 			String outputDirectory = null;
 			if (line.hasOption(outputdir)) {
 				outputDirectory = line.getOptionValue(outputdir);
 			}
-			Cephalogram ceph = new Cephalogram(new File(line.getOptionValue(inputfile)), null);
+			Cephalogram ceph = new Cephalogram(new File(line.getOptionValue(inputfile)));
 			if (outputDirectory != null) {
 				ceph.writeDCM(outputDirectory, null);
 				return;
 			}
 			ceph.writeDCM();
 			return;
+		} catch (ConversionException e) {
+			Log.err("Could not convert " + e.getInput() + ": " + e.getMessage());
+			System.exit(1);
+			return;
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 			Log.err("Could not find input file. Exiting.");
@@ -134,7 +399,42 @@ public class Ceph2Dicom {
 			Log.err("IOException occured. Exiting.");
 			System.exit(1);
 			return;
+		} catch (InterruptedException e) {
+			Log.err("Interrupted while converting. Exiting.");
+			System.exit(1);
+			return;
+		}
+	}
+
+	/**
+	 * Get the value of an option that takes a positive number.
+	 *
+	 * @param line
+	 *            The parsed command line.
+	 * @param option
+	 *            The long name of the option.
+	 * @param max
+	 *            The largest value allowed.
+	 * @return the value, or 0 if the option is not given.
+	 * @throws ParseException
+	 *             if the value is not a number from 1 to max
+	 */
+	static int getPositiveValue(CommandLine line, String option, int max)
+			throws ParseException {
+		if (!line.hasOption(option)) {
+			return 0;
+		}
+		String value = line.getOptionValue(option);
+		try {
+			long n = Long.parseLong(value.trim());
+			if (n >= 1 && n <= max) {
+				return (int) n;
+			}
+		} catch (NumberFormatException e) {
+			// reported below
 		}
+		throw new ParseException("--" + option + " must be a number from 1 to "
+				+ max + ", not '" + value + "'.");
 	}
 
 	private Properties loadConfiguration(File cfgFile) throws IOException {
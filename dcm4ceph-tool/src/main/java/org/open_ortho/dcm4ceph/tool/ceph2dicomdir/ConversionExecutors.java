@@ -0,0 +1,62 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates the executors conversions run on.
+ * <p>
+ * This is the Java 8 version, which has no virtual threads. The tool jar is a
+ * multi-release jar: on Java 21 and later, the version of this class in
+ * {@code META-INF/versions/21} is loaded instead.
+ *
+ * @author afm
+ *
+ */
+class ConversionExecutors {
+
+	private ConversionExecutors() {
+	}
+
+	/**
+	 * @return whether this Java runtime has virtual threads.
+	 */
+	static boolean supportsVirtualThreads() {
+		return false;
+	}
+
+	/**
+	 * Create an executor that starts a new virtual thread for each task.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             on Java versions before 21
+	 */
+	static ExecutorService newVirtualThreadPerTaskExecutor() {
+		throw new UnsupportedOperationException(
+				"Virtual threads require Java 21 or later.");
+	}
+}
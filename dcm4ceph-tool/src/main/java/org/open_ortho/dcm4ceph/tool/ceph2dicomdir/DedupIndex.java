@@ -0,0 +1,221 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.open_ortho.dcm4ceph.util.DigestUtils;
+import org.open_ortho.dcm4ceph.util.Log;
+
+/**
+ * Finds source images that were already converted, by their content.
+ * <p>
+ * The index maps the SHA-256 digest of each converted JPEG file to the SOP
+ * Instance UID and the DICOM file it was converted to. It is kept in a text
+ * file, one tab separated line per image, which is only ever appended to, see
+ * {@link AppendLog}, and is loaded into a hash table when opened. The same
+ * scan exported under several names is thus encoded, stored and indexed
+ * once, across runs.
+ * <p>
+ * Before converting an image, a worker calls {@link #claim(String)} with its
+ * digest. If another worker is converting the same content at that moment,
+ * the call waits for it to finish, so that two copies in the same run are
+ * not both converted. The wait is on a {@link ReentrantLock}, which a virtual
+ * thread waits for without holding on to its carrier thread.
+ *
+ * @author afm
+ *
+ */
+public class DedupIndex implements Closeable {
+
+	/**
+	 * The digest the index is keyed by.
+	 */
+	public static final String ALGORITHM = DigestUtils.SHA256;
+
+	/**
+	 * What to do with an image whose content is already in the index.
+	 */
+	public enum Mode {
+		/**
+		 * Do not convert it, and leave it out of the results.
+		 */
+		SKIP,
+		/**
+		 * Do not convert it, and record in the results the DICOM file and
+		 * SOP Instance UID holding its content.
+		 */
+		REFERENCE
+	}
+
+	/**
+	 * A converted image.
+	 */
+	public static class Entry {
+		private final String digest;
+		private final String sopInstanceUID;
+		private final File output;
+
+		Entry(String digest, String sopInstanceUID, File output) {
+			this.digest = digest;
+			this.sopInstanceUID = sopInstanceUID;
+			this.output = output;
+		}
+
+		public String getDigest() {
+			return digest;
+		}
+
+		public String getSOPInstanceUID() {
+			return sopInstanceUID;
+		}
+
+		public File getOutput() {
+			return output;
+		}
+	}
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	private final Set<String> converting = new HashSet<String>();
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * Signalled when a digest is no longer being converted.
+	 */
+	private final Condition released = lock.newCondition();
+
+	private final AppendLog log;
+
+	/**
+	 * Open an index, creating it if it does not exist.
+	 *
+	 * @param file
+	 *            The index file.
+	 */
+	public DedupIndex(File file) throws IOException {
+		log = new AppendLog(file, 3, fields -> entries.put(fields[0],
+				new Entry(fields[0], fields[1], new File(fields[2]))));
+		Log.info("Index " + file + " holds " + entries.size() + " images.");
+	}
+
+	/**
+	 * @return the number of images in the index.
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return entries.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Look up an image, and if it is not in the index, reserve its digest
+	 * for the caller, who must then call {@link #record} or
+	 * {@link #release(String)}.
+	 *
+	 * @param digest
+	 *            The digest of the image, see {@link #ALGORITHM}.
+	 * @return the entry of the image, or {@code null} if the caller is to
+	 *         convert it. An entry whose DICOM file no longer exists is
+	 *         ignored.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for another worker converting
+	 *             the same content
+	 */
+	public Entry claim(String digest) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (converting.contains(digest)) {
+				released.await();
+			}
+			Entry e = entries.get(digest);
+			if (e != null && e.getOutput().exists()) {
+				return e;
+			}
+			converting.add(digest);
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Record a converted image, and wake up workers waiting for it.
+	 *
+	 * @param digest
+	 *            The digest of the image.
+	 * @param sopInstanceUID
+	 *            The SOP Instance UID of the DICOM file.
+	 * @param output
+	 *            The DICOM file written.
+	 */
+	public void record(String digest, String sopInstanceUID, File output)
+			throws IOException {
+		Entry e = new Entry(digest, sopInstanceUID, output.getAbsoluteFile());
+		lock.lock();
+		try {
+			log.append(digest, sopInstanceUID, e.getOutput().getPath());
+			entries.put(digest, e);
+		} finally {
+			release(digest);
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Give up a digest reserved by {@link #claim(String)}, because its
+	 * conversion failed.
+	 */
+	public void release(String digest) {
+		lock.lock();
+		try {
+			if (converting.remove(digest)) {
+				released.signalAll();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Sync the pending entries and close the index.
+	 */
+	public void close() throws IOException {
+		log.close();
+	}
+}
@@ -0,0 +1,237 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import org.open_ortho.dcm4ceph.util.DigestUtils;
+import org.open_ortho.dcm4ceph.util.Log;
+
+/**
+ * Remembers what every DICOM file of an incremental batch was written from,
+ * so that only images whose sources changed are converted again.
+ * <p>
+ * For each DICOM file, the state holds the size and modification time of the
+ * DICOM file, of its image and of the .properties file, or for the rows of a
+ * manifest, a digest of the properties of the row. A DICOM file is up to date
+ * only if all of these are still the same, so that an image replaced by an
+ * older copy, e.g. restored from a backup, or an edited manifest row, is
+ * converted again. Only file attributes are read, so checking is fast even on
+ * network storage.
+ * <p>
+ * The state is a text file with one tab separated line per written file,
+ * which is only ever appended to, see {@link AppendLog}. The last line of a
+ * DICOM file wins when the state is loaded.
+ *
+ * @author afm
+ *
+ */
+public class IncrementalState implements Closeable {
+
+	/**
+	 * Name of the state file, in the output directory or else the current
+	 * directory, when none is given.
+	 */
+	public static final String DEFAULT_NAME = ".ceph2dicom-incremental";
+
+	/**
+	 * The sources of a DICOM file, as they were when it was written.
+	 */
+	static class Sources {
+		private final String input;
+		private final long inputSize;
+		private final long inputModified;
+		private final long propertiesSize;
+		private final long propertiesModified;
+		private final String propertiesDigest;
+
+		Sources(String input, long inputSize, long inputModified,
+				long propertiesSize, long propertiesModified,
+				String propertiesDigest) {
+			this.input = input;
+			this.inputSize = inputSize;
+			this.inputModified = inputModified;
+			this.propertiesSize = propertiesSize;
+			this.propertiesModified = propertiesModified;
+			this.propertiesDigest = propertiesDigest;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Sources)) {
+				return false;
+			}
+			Sources s = (Sources) o;
+			return input.equals(s.input) && inputSize == s.inputSize
+					&& inputModified == s.inputModified
+					&& propertiesSize == s.propertiesSize
+					&& propertiesModified == s.propertiesModified
+					&& propertiesDigest.equals(s.propertiesDigest);
+		}
+
+		public int hashCode() {
+			return input.hashCode() * 31 + Long.hashCode(inputModified);
+		}
+	}
+
+	private static class Entry {
+		private final long size;
+		private final long lastModified;
+		private final Sources sources;
+
+		Entry(long size, long lastModified, Sources sources) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.sources = sources;
+		}
+	}
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+	private final AppendLog log;
+
+	/**
+	 * Open a state file, creating it if it does not exist.
+	 *
+	 * @param file
+	 *            The state file.
+	 */
+	public IncrementalState(File file) throws IOException {
+		log = new AppendLog(file, 9, this::load);
+		Log.info("Incremental state " + file + " holds " + entries.size()
+				+ " written files.");
+	}
+
+	private void load(String[] fields) {
+		try {
+			entries.put(fields[0], new Entry(Long.parseLong(fields[1]), Long
+					.parseLong(fields[2]), new Sources(fields[3], Long
+					.parseLong(fields[4]), Long.parseLong(fields[5]), Long
+					.parseLong(fields[6]), Long.parseLong(fields[7]),
+					fields[8])));
+		} catch (NumberFormatException e) {
+			// not an entry
+		}
+	}
+
+	private static String key(File file) {
+		return file.toPath().toAbsolutePath().normalize().toString();
+	}
+
+	/**
+	 * Read the sources of a DICOM file as they are now.
+	 *
+	 * @param input
+	 *            The image.
+	 * @param propertiesFile
+	 *            The .properties file of the image. Not read if the
+	 *            properties are given.
+	 * @param properties
+	 *            The properties of a manifest row, or {@code null} if they
+	 *            are read from the .properties file.
+	 */
+	static Sources sources(File input, File propertiesFile,
+			Properties properties) {
+		if (properties != null) {
+			return new Sources(key(input), input.length(), input
+					.lastModified(), -1, -1, digest(properties));
+		}
+		return new Sources(key(input), input.length(), input.lastModified(),
+				propertiesFile.length(), propertiesFile.lastModified(), "");
+	}
+
+	/**
+	 * @return the SHA-256 digest of the keys and values of properties, in
+	 *         the order of the keys.
+	 */
+	static String digest(Properties properties) {
+		MessageDigest md = DigestUtils.newDigest(DigestUtils.SHA256);
+		for (String key : new TreeSet<String>(properties
+				.stringPropertyNames())) {
+			md.update((AppendLog.escape(key) + '\t'
+					+ AppendLog.escape(properties.getProperty(key)) + '\n')
+					.getBytes(StandardCharsets.UTF_8));
+		}
+		return DigestUtils.toHex(md.digest());
+	}
+
+	/**
+	 * @param output
+	 *            A DICOM file.
+	 * @param sources
+	 *            Its sources, as they are now.
+	 * @return whether the DICOM file was written from these sources, and has
+	 *         not changed since.
+	 */
+	synchronized boolean isUpToDate(File output, Sources sources) {
+		Entry e = entries.get(key(output));
+		return e != null && e.sources.equals(sources)
+				&& output.length() == e.size
+				&& output.lastModified() == e.lastModified;
+	}
+
+	/**
+	 * @return the number of written files in the state.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Record a written DICOM file, with its current size and modification
+	 * time.
+	 *
+	 * @param output
+	 *            The DICOM file.
+	 * @param sources
+	 *            Its sources, as they were before it was written, so that a
+	 *            source changed during the write is converted again.
+	 */
+	synchronized void record(File output, Sources sources) throws IOException {
+		Entry e = new Entry(output.length(), output.lastModified(), sources);
+		String key = key(output);
+		log.append(key, Long.toString(e.size), Long.toString(e.lastModified),
+				sources.input, Long.toString(sources.inputSize), Long
+						.toString(sources.inputModified), Long
+						.toString(sources.propertiesSize), Long
+						.toString(sources.propertiesModified),
+				sources.propertiesDigest);
+		entries.put(key, e);
+	}
+
+	/**
+	 * Sync the pending entries and close the state file.
+	 */
+	public void close() throws IOException {
+		log.close();
+	}
+}
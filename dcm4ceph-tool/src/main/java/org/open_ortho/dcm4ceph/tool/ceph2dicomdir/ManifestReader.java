@@ -0,0 +1,380 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.open_ortho.dcm4ceph.core.ConversionException;
+
+/**
+ * Reads the images of a batch and their properties from one manifest file,
+ * instead of one .properties file per image.
+ * <p>
+ * The manifest is either a CSV file, whose first line names the columns, or a
+ * JSON Lines file ({@code .jsonl} or {@code .ndjson}), with one flat JSON
+ * object per line. Each row has an {@value #IMAGE} column with the path of
+ * the image, relative to the manifest, and the same keys as a .properties
+ * file, e.g. {@code patientID}, {@code studyDate} or {@code cephalogramType}.
+ * An empty CSV value is left out, as a key missing from a .properties file
+ * would be, so that its default applies. A byte order mark at the start of
+ * the file and spaces around column names are ignored.
+ * <p>
+ * Rows are read one at a time, so a manifest of any length is read in
+ * constant memory.
+ *
+ * @author afm
+ *
+ */
+public class ManifestReader implements Closeable {
+
+	/**
+	 * The column holding the path of the image.
+	 */
+	public static final String IMAGE = "image";
+
+	private static final char BOM = '\uFEFF';
+
+	/**
+	 * An image and its properties.
+	 */
+	public static class Row {
+		private final File image;
+		private final Properties properties;
+
+		Row(File image, Properties properties) {
+			this.image = image;
+			this.properties = properties;
+		}
+
+		public File getImage() {
+			return image;
+		}
+
+		public Properties getProperties() {
+			return properties;
+		}
+	}
+
+	private final File manifest;
+
+	private final File baseDirectory;
+
+	private final BufferedReader in;
+
+	private final boolean json;
+
+	private String[] columns;
+
+	private int lineNumber;
+
+	/**
+	 * Open a manifest.
+	 *
+	 * @param manifest
+	 *            The CSV or JSON Lines file.
+	 */
+	public ManifestReader(File manifest) throws IOException {
+		this.manifest = manifest;
+		this.baseDirectory = manifest.getAbsoluteFile().getParentFile();
+		String name = manifest.getName().toLowerCase();
+		this.json = name.endsWith(".jsonl") || name.endsWith(".ndjson");
+		this.in = Files.newBufferedReader(manifest.toPath(),
+				StandardCharsets.UTF_8);
+		in.mark(1);
+		if (in.read() != BOM) {
+			in.reset();
+		}
+		if (!json) {
+			List<String> header = readCsvRecord();
+			if (header != null) {
+				for (int i = 0; i < header.size(); i++) {
+					header.set(i, header.get(i).trim());
+				}
+			}
+			if (header == null || !header.contains(IMAGE)) {
+				in.close();
+				throw new ConversionException(manifest, "no " + IMAGE
+						+ " column in the first line");
+			}
+			columns = header.toArray(new String[header.size()]);
+		}
+	}
+
+	/**
+	 * @return the manifest file.
+	 */
+	public File getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * Read the next row.
+	 *
+	 * @return the row, or {@code null} at the end of the manifest.
+	 * @throws ConversionException
+	 *             if the row cannot be parsed. The next call goes on with the
+	 *             following row.
+	 * @throws IOException
+	 *             if the manifest cannot be read
+	 */
+	public Row next() throws IOException {
+		Properties properties = new Properties();
+		if (json) {
+			String line;
+			do {
+				line = in.readLine();
+				if (line == null) {
+					return null;
+				}
+				lineNumber++;
+				line = line.trim();
+			} while (line.length() == 0);
+			try {
+				new JsonObjectParser(line, properties).parse();
+			} catch (IllegalArgumentException e) {
+				throw error(e.getMessage());
+			}
+		} else {
+			List<String> record;
+			do {
+				record = readCsvRecord();
+				if (record == null) {
+					return null;
+				}
+			} while (record.size() == 1 && record.get(0).length() == 0);
+			if (record.size() != columns.length) {
+				throw error(record.size() + " values for " + columns.length
+						+ " columns");
+			}
+			for (int i = 0; i < columns.length; i++) {
+				if (record.get(i).length() > 0) {
+					properties.setProperty(columns[i], record.get(i));
+				}
+			}
+		}
+		String path = (String) properties.remove(IMAGE);
+		if (path == null || path.length() == 0) {
+			throw error("no " + IMAGE);
+		}
+		File image = new File(path);
+		if (!image.isAbsolute()) {
+			image = new File(baseDirectory, path);
+		}
+		return new Row(image, properties);
+	}
+
+	private ConversionException error(String message) {
+		return new ConversionException(manifest, "line " + lineNumber + ": "
+				+ message);
+	}
+
+	/**
+	 * Read a CSV record, as in RFC 4180. A quoted value can hold commas,
+	 * doubled quotes and line breaks.
+	 *
+	 * @return the values, or {@code null} at the end of the file.
+	 */
+	private List<String> readCsvRecord() throws IOException {
+		int c = in.read();
+		if (c < 0) {
+			return null;
+		}
+		lineNumber++;
+		List<String> values = new ArrayList<String>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		while (true) {
+			if (quoted) {
+				if (c < 0) {
+					throw error("unterminated quoted value");
+				}
+				if (c == '"') {
+					c = in.read();
+					if (c != '"') {
+						quoted = false;
+						continue;
+					}
+				} else if (c == '\n') {
+					lineNumber++;
+				}
+				value.append((char) c);
+			} else if (c == '"' && value.length() == 0) {
+				quoted = true;
+			} else if (c == ',') {
+				values.add(value.toString());
+				value.setLength(0);
+			} else if (c == '\n' || c < 0) {
+				break;
+			} else if (c != '\r') {
+				value.append((char) c);
+			}
+			c = in.read();
+		}
+		values.add(value.toString());
+		return values;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Parses one flat JSON object into properties. Strings, numbers and
+	 * booleans are stored as their text; null values are left out.
+	 */
+	private static class JsonObjectParser {
+		private final String s;
+		private final Properties properties;
+		private int pos;
+
+		JsonObjectParser(String s, Properties properties) {
+			this.s = s;
+			this.properties = properties;
+		}
+
+		void parse() {
+			expect('{');
+			if (peek() == '}') {
+				pos++;
+			} else {
+				do {
+					String key = string();
+					expect(':');
+					String value = value();
+					if (value != null) {
+						properties.setProperty(key, value);
+					}
+				} while (next(',', '}') == ',');
+			}
+			if (peek() != 0) {
+				throw new IllegalArgumentException("text after the object");
+			}
+		}
+
+		private String value() {
+			char c = peek();
+			if (c == '"') {
+				return string();
+			}
+			int start = pos;
+			while (pos < s.length() && ",} \t".indexOf(s.charAt(pos)) < 0) {
+				pos++;
+			}
+			String literal = s.substring(start, pos);
+			if (literal.equals("null")) {
+				return null;
+			}
+			if (literal.equals("true") || literal.equals("false")
+					|| literal.matches("-?[0-9]+(\\.[0-9]+)?([eE][-+]?[0-9]+)?")) {
+				return literal;
+			}
+			throw new IllegalArgumentException("unsupported value at "
+					+ (start + 1) + ", only strings, numbers and booleans");
+		}
+
+		private String string() {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				if (pos >= s.length()) {
+					throw new IllegalArgumentException("unterminated string");
+				}
+				char c = s.charAt(pos++);
+				if (c == '"') {
+					return sb.toString();
+				}
+				if (c != '\\') {
+					sb.append(c);
+					continue;
+				}
+				if (pos >= s.length()) {
+					throw new IllegalArgumentException("unterminated string");
+				}
+				char e = s.charAt(pos++);
+				switch (e) {
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'u':
+					if (pos + 4 > s.length()) {
+						throw new IllegalArgumentException("invalid escape");
+					}
+					sb.append((char) Integer.parseInt(
+							s.substring(pos, pos + 4), 16));
+					pos += 4;
+					break;
+				default:
+					sb.append(e);
+				}
+			}
+		}
+
+		private char peek() {
+			while (pos < s.length() && Character.isWhitespace(s.charAt(pos))) {
+				pos++;
+			}
+			return pos < s.length() ? s.charAt(pos) : 0;
+		}
+
+		private void expect(char c) {
+			if (peek() != c) {
+				throw new IllegalArgumentException("expected '" + c + "' at "
+						+ (pos + 1));
+			}
+			pos++;
+		}
+
+		private char next(char a, char b) {
+			char c = peek();
+			if (c != a && c != b) {
+				throw new IllegalArgumentException("expected '" + a
+						+ "' or '" + b + "' at " + (pos + 1));
+			}
+			pos++;
+			return c;
+		}
+	}
+}
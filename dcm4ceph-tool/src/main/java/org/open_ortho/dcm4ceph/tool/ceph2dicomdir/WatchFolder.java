@@ -0,0 +1,293 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.open_ortho.dcm4ceph.core.Cephalogram;
+import org.open_ortho.dcm4ceph.core.ConversionResult;
+import org.open_ortho.dcm4ceph.util.FileUtils;
+import org.open_ortho.dcm4ceph.util.Log;
+
+/**
+ * Converts the cephalograms dropped into a folder, as they arrive.
+ * <p>
+ * The folder is watched with a {@link WatchService}. An image is converted
+ * once its .properties file is there too, and the sizes of both files have not
+ * changed for {@link #STABLE_MILLIS}, so that files still being copied are
+ * left alone. After the conversion, the image and its .properties file are
+ * moved to the {@code processed} subfolder, or to the {@code failed}
+ * subfolder if they could not be converted.
+ * <p>
+ * DICOM files are written under a temporary name and renamed when complete,
+ * as in {@link BatchConverter}, so that a process reading the output folder
+ * never sees a partial file. When the JVM is stopped, e.g. with Ctrl-C, no
+ * new conversion is started and those running are given
+ * {@link #SHUTDOWN_SECONDS} to complete.
+ *
+ * @author afm
+ *
+ */
+public class WatchFolder {
+
+	/**
+	 * How long the sizes of an image and its .properties file must stay the
+	 * same before the image is converted.
+	 */
+	public static final long STABLE_MILLIS = 250;
+
+	/**
+	 * How often the pending files are checked while no events arrive.
+	 */
+	private static final long POLL_MILLIS = 100;
+
+	/**
+	 * How long a shutdown waits for the running conversions.
+	 */
+	public static final long SHUTDOWN_SECONDS = 30;
+
+	private final Path inbox;
+
+	private final File outputDirectory;
+
+	private final Path processed;
+
+	private final Path failed;
+
+	private final ExecutorService executor;
+
+	/**
+	 * Images seen but not converted yet, by the name of their .properties
+	 * file.
+	 */
+	private final Map<Path, Pending> pending = new HashMap<Path, Pending>();
+
+	/**
+	 * .properties files of the images being converted, until they are moved.
+	 */
+	private final Set<Path> converting = ConcurrentHashMap.newKeySet();
+
+	private volatile boolean stopped;
+
+	private final CountDownLatch terminated = new CountDownLatch(1);
+
+	private static class Pending {
+		Path image;
+		long imageSize = -1;
+		long propertiesSize = -1;
+		long since;
+	}
+
+	/**
+	 * @param inbox
+	 *            The folder to watch.
+	 * @param outputDirectory
+	 *            Directory where to write the DICOM files.
+	 * @param threads
+	 *            Number of conversions to run in parallel. Values smaller than
+	 *            one select the number of available processors.
+	 */
+	public WatchFolder(File inbox, File outputDirectory, int threads)
+			throws IOException {
+		this.inbox = inbox.toPath();
+		this.outputDirectory = outputDirectory;
+		this.processed = Files.createDirectories(this.inbox.resolve("processed"));
+		this.failed = Files.createDirectories(this.inbox.resolve("failed"));
+		this.executor = Executors.newFixedThreadPool(threads > 0 ? threads
+				: Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Watch the folder until interrupted, stopped, or the JVM shuts down.
+	 * <p>
+	 * Files already in the folder are converted first. Conversions that were
+	 * started are completed before returning.
+	 */
+	public void run() throws IOException, InterruptedException {
+		Thread hook = new Thread(() -> {
+			stop();
+			try {
+				if (!terminated.await(SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+					Log.warn("Conversions still running after "
+							+ SHUTDOWN_SECONDS + " s, exiting anyway.");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "watch-folder-shutdown");
+		Runtime.getRuntime().addShutdownHook(hook);
+		try (WatchService watcher = inbox.getFileSystem().newWatchService()) {
+			inbox.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+			Log.info("Watching " + inbox + " for new cephalograms.");
+			scan();
+			while (!stopped) {
+				WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (key != null) {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							scan();
+						} else {
+							seen(inbox.resolve((Path) event.context()));
+						}
+					}
+					if (!key.reset()) {
+						throw new IOException(inbox + " is no longer accessible");
+					}
+				}
+				convertStable();
+			}
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} finally {
+				terminated.countDown();
+				try {
+					Runtime.getRuntime().removeShutdownHook(hook);
+				} catch (IllegalStateException e) {
+					// Called from the hook, while shutting down.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop watching. {@link #run()} returns once the conversions already
+	 * started are complete.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	private void scan() throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(inbox)) {
+			for (Path file : files) {
+				seen(file);
+			}
+		}
+	}
+
+	private void seen(Path file) {
+		if (!Files.isRegularFile(file)) {
+			return;
+		}
+		boolean image = BatchConverter.isImage(file);
+		if (!image && !file.getFileName().toString().endsWith(".properties")) {
+			return;
+		}
+		Path properties = FileUtils.getPropertiesFile(file.toFile()).toPath();
+		if (converting.contains(properties)) {
+			return;
+		}
+		Pending p = pending.get(properties);
+		if (p == null) {
+			p = new Pending();
+			pending.put(properties, p);
+		}
+		if (image) {
+			p.image = file;
+		}
+	}
+
+	private void convertStable() {
+		long now = System.currentTimeMillis();
+		for (Iterator<Map.Entry<Path, Pending>> it = pending.entrySet()
+				.iterator(); it.hasNext();) {
+			Map.Entry<Path, Pending> e = it.next();
+			Pending p = e.getValue();
+			if (p.image == null) {
+				continue;
+			}
+			long imageSize = p.image.toFile().length();
+			long propertiesSize = e.getKey().toFile().length();
+			if (imageSize != p.imageSize || propertiesSize != p.propertiesSize
+					|| propertiesSize == 0) {
+				// Still being written, or the .properties file is not there
+				// yet (length() is 0 for missing files).
+				p.imageSize = imageSize;
+				p.propertiesSize = propertiesSize;
+				p.since = now;
+			} else if (now - p.since >= STABLE_MILLIS) {
+				it.remove();
+				converting.add(e.getKey());
+				final Path image = p.image;
+				final Path properties = e.getKey();
+				executor.execute(() -> convert(image, properties));
+			}
+		}
+	}
+
+	private void convert(Path image, Path properties) {
+		long start = System.nanoTime();
+		ConversionResult result;
+		try {
+			Cephalogram ceph = new Cephalogram(image.toFile(),
+					properties.toFile());
+			File dcmFile = new File(outputDirectory, ceph.getDCMFileName());
+			BatchConverter.writeDCM(ceph, dcmFile, null);
+			result = ConversionResult.success(image.toFile(), dcmFile,
+					System.nanoTime() - start);
+			Log.info("Converted " + result);
+		} catch (Exception e) {
+			result = ConversionResult.failure(image.toFile(), e,
+					System.nanoTime() - start);
+			Log.err("Could not convert " + result);
+		}
+		Path target = result.isSuccess() ? processed : failed;
+		try {
+			move(image, target);
+			move(properties, target);
+			converting.remove(properties);
+		} catch (IOException e) {
+			// Left in converting, so that it is not converted over and over.
+			Log.err("Could not move " + image + " to " + target + ": " + e);
+		}
+	}
+
+	private static void move(Path file, Path dir) throws IOException {
+		Files.move(file, dir.resolve(file.getFileName()),
+				StandardCopyOption.REPLACE_EXISTING);
+	}
+}
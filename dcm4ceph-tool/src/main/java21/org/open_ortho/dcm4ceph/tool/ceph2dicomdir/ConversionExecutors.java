@@ -0,0 +1,58 @@
+/**
+ * dcm4ceph, a DICOM library for digital cephalograms
+ * Copyright (C) 2006  Toni Magni
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ * Toni Magni
+ * email: afm@case.edu
+ * website: https://github.com/open-ortho/dcm4ceph
+ *
+ */
+
+
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates the executors conversions run on.
+ * <p>
+ * This is the Java 21 version, packaged in {@code META-INF/versions/21} of
+ * the multi-release tool jar.
+ *
+ * @author afm
+ *
+ */
+class ConversionExecutors {
+
+	private ConversionExecutors() {
+	}
+
+	/**
+	 * @return whether this Java runtime has virtual threads.
+	 */
+	static boolean supportsVirtualThreads() {
+		return true;
+	}
+
+	/**
+	 * Create an executor that starts a new virtual thread for each task.
+	 */
+	static ExecutorService newVirtualThreadPerTaskExecutor() {
+		return Executors.newVirtualThreadPerTaskExecutor();
+	}
+}
@@ -0,0 +1,153 @@
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.open_ortho.dcm4ceph.core.ConversionResult;
+
+/**
+ * Batch conversion of the sample cephalograms.
+ */
+public class BatchConverterTest extends TestCase {
+
+    static final String[] SAMPLES = { "B1893L12", "B1893F12" };
+
+    private File input;
+
+    private File output;
+
+    /**
+     * Copy the sample images and their .properties files into a new
+     * directory.
+     *
+     * @return the copied images
+     */
+    static List<File> copySamples(File dir) throws IOException {
+        File samples = new File(System.getProperty("dcm4ceph.sampledata",
+                "../dcm4ceph-sampledata"));
+        List<File> images = new ArrayList<File>();
+        for (String name : SAMPLES) {
+            for (String ext : new String[] { ".jpg", ".properties" }) {
+                Files.copy(new File(samples, name + ext).toPath(), new File(
+                        dir, name + ext).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            images.add(new File(dir, name + ".jpg"));
+        }
+        return images;
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    protected void setUp() throws IOException {
+        input = Files.createTempDirectory("batch-in").toFile();
+        output = Files.createTempDirectory("batch-out").toFile();
+    }
+
+    protected void tearDown() {
+        delete(input);
+        delete(output);
+    }
+
+    public void testConvertOnPool() throws Exception {
+        List<File> images = copySamples(input);
+        BatchConverter converter = new BatchConverter(output, 2);
+        converter.run(images);
+        assertEquals(0, converter.getFailureCount());
+        assertEquals(2, converter.getResults().size());
+        for (ConversionResult result : converter.getResults()) {
+            assertTrue(result.toString(), result.isSuccess());
+            assertTrue(result.getOutput().length() > 0);
+            assertEquals(output, result.getOutput().getParentFile());
+        }
+        // The temporary files were renamed.
+        String[] names = output.list();
+        Arrays.sort(names);
+        assertEquals(Arrays.asList("B1893F12.dcm", "B1893L12.dcm"), Arrays
+                .asList(names));
+    }
+
+    public void testFailureDoesNotStopBatch() throws Exception {
+        List<File> images = copySamples(input);
+        File broken = new File(input, "broken.jpg");
+        try (FileOutputStream out = new FileOutputStream(broken)) {
+            out.write("not a JPEG".getBytes("US-ASCII"));
+        }
+        Files.copy(new File(input, "B1893L12.properties").toPath(), new File(
+                input, "broken.properties").toPath());
+        images.add(0, broken);
+        BatchConverter converter = new BatchConverter(output, 1);
+        converter.run(images);
+        assertEquals(1, converter.getFailureCount());
+        assertEquals(3, converter.getResults().size());
+        // Neither the DICOM file nor its temporary file is left behind.
+        assertFalse(new File(output, "broken.dcm").exists());
+        assertFalse(new File(output, "broken.dcm.part").exists());
+        assertTrue(new File(output, "B1893L12.dcm").exists());
+    }
+
+    public void testSameOutputName() throws Exception {
+        File a = new File(input, "a");
+        File b = new File(input, "b");
+        a.mkdir();
+        b.mkdir();
+        copySamples(a);
+        copySamples(b);
+        List<File> images = BatchConverter.listInputs(input.getPath());
+        assertEquals(4, images.size());
+        BatchConverter converter = new BatchConverter(output, 2);
+        converter.run(images);
+        // The images of b would overwrite those of a.
+        assertEquals(2, converter.getFailureCount());
+        for (ConversionResult result : converter.getResults()) {
+            assertEquals(result.toString(), result.getInput().getParentFile()
+                    .equals(a), result.isSuccess());
+        }
+        assertEquals(2, output.list().length);
+    }
+
+    public void testIncremental() throws Exception {
+        List<File> images = copySamples(input);
+        File state = new File(input, IncrementalState.DEFAULT_NAME);
+        try (IncrementalState incremental = new IncrementalState(state)) {
+            BatchConverter first = new BatchConverter(output, 2);
+            first.setIncremental(incremental);
+            first.run(images);
+            assertEquals(0, first.getFailureCount());
+        }
+        File dcm = new File(output, "B1893L12.dcm");
+        long written = dcm.lastModified();
+
+        try (IncrementalState incremental = new IncrementalState(state)) {
+            BatchConverter again = new BatchConverter(output, 2);
+            again.setIncremental(incremental);
+            again.run(images);
+            assertTrue(again.getResults().isEmpty());
+            assertEquals(written, dcm.lastModified());
+
+            // An image replaced by an older copy is converted again.
+            images.get(0).setLastModified(written - 60000);
+            again = new BatchConverter(output, 2);
+            again.setIncremental(incremental);
+            again.run(images);
+            assertEquals(1, again.getResults().size());
+            assertEquals(images.get(0), again.getResults().get(0).getInput());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Appends to a journal and loads it again.
+ */
+public class BatchJournalTest extends TestCase {
+
+    private File dir;
+
+    private File file;
+
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal").toFile();
+        file = new File(dir, "batch.journal");
+    }
+
+    protected void tearDown() {
+        BatchConverterTest.delete(dir);
+    }
+
+    private File create(String name, int length) throws IOException {
+        File f = new File(dir, name);
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(new byte[length]);
+        }
+        return f;
+    }
+
+    public void testRecordAndReload() throws IOException {
+        File input = create("in\tput.jpg", 10);
+        File output = create("out.dcm", 20);
+        try (BatchJournal journal = new BatchJournal(file)) {
+            assertFalse(journal.isDone(input));
+            journal.record(input, "abcd", output, "1.2.3");
+            assertTrue(journal.isDone(input));
+        }
+        try (BatchJournal journal = new BatchJournal(file)) {
+            assertEquals(1, journal.size());
+            BatchJournal.Entry e = journal.get(input);
+            assertEquals("abcd", e.getDigest());
+            assertEquals("1.2.3", e.getSOPInstanceUID());
+            assertEquals(output.getAbsoluteFile(), e.getOutput());
+            assertTrue(journal.isDone(input));
+            // The output is gone.
+            output.delete();
+            assertFalse(journal.isDone(input));
+        }
+    }
+
+    public void testChangedInput() throws IOException {
+        File input = create("input.jpg", 10);
+        File output = create("out.dcm", 20);
+        try (BatchJournal journal = new BatchJournal(file)) {
+            journal.record(input, "abcd", output, "1.2.3");
+            input.setLastModified(input.lastModified() - 10000);
+            assertFalse(journal.isDone(input));
+            journal.record(input, "abcd", output, "1.2.3");
+            assertTrue(journal.isDone(input));
+            // Same modification time, different size.
+            long modified = input.lastModified();
+            create("input.jpg", 11);
+            input.setLastModified(modified);
+            assertFalse(journal.isDone(input));
+        }
+    }
+
+    public void testGroupedSync() throws IOException {
+        File output = create("out.dcm", 20);
+        try (BatchJournal journal = new BatchJournal(file)) {
+            for (int i = 1; i < BatchJournal.SYNC_ENTRIES; i++) {
+                journal.record(new File(dir, i + ".jpg"), "d", output, "1." + i);
+            }
+            // Unless a second has passed, nothing was synced yet.
+            assertTrue(journal.getUnsynced() <= BatchJournal.SYNC_ENTRIES - 1);
+            journal.record(new File(dir, "last.jpg"), "d", output, "1.0");
+            assertEquals(0, journal.getUnsynced());
+            journal.record(new File(dir, "next.jpg"), "d", output, "1.1");
+            assertEquals(1, journal.getUnsynced());
+        }
+        List<String> lines = Files.readAllLines(file.toPath(),
+                StandardCharsets.UTF_8);
+        assertEquals(BatchJournal.SYNC_ENTRIES + 1, lines.size());
+    }
+
+    public void testTornLastLine() throws IOException {
+        File first = create("first.jpg", 10);
+        File second = create("second.jpg", 10);
+        File output = create("out.dcm", 20);
+        try (BatchJournal journal = new BatchJournal(file)) {
+            journal.record(first, "abcd", output, "1.2.3");
+        }
+        // A crash while the next line was written.
+        Files.write(file.toPath(), (second.getAbsolutePath() + "\t10\t")
+                .getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        try (BatchJournal journal = new BatchJournal(file)) {
+            assertEquals(1, journal.size());
+            assertTrue(journal.isDone(first));
+            assertFalse(journal.isDone(second));
+            journal.record(second, "ef01", output, "1.2.4");
+        }
+        try (BatchJournal journal = new BatchJournal(file)) {
+            assertEquals(2, journal.size());
+            assertTrue(journal.isDone(first));
+            assertTrue(journal.isDone(second));
+        }
+    }
+
+    public void testEscape() {
+        String s = "a\\b\tc\nd";
+        assertEquals(s, AppendLog.unescape(AppendLog.escape(s)));
+        assertEquals("plain", AppendLog.escape("plain"));
+    }
+}
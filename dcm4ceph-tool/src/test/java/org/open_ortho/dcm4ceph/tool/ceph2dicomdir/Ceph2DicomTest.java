@@ -0,0 +1,40 @@
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Validation of numeric options.
+ */
+public class Ceph2DicomTest extends TestCase {
+
+    private static CommandLine parse(String... args) throws ParseException {
+        Options options = new Options();
+        options.addOption("t", "threads", true, "");
+        return new DefaultParser().parse(options, args);
+    }
+
+    public void testPositiveValue() throws ParseException {
+        assertEquals(4, Ceph2Dicom.getPositiveValue(parse("--threads", "4"),
+                "threads", 10));
+        assertEquals(0, Ceph2Dicom.getPositiveValue(parse(), "threads", 10));
+    }
+
+    public void testInvalidValues() {
+        for (String value : new String[] { "0", "-2", "four", "11",
+                "99999999999" }) {
+            try {
+                Ceph2Dicom.getPositiveValue(parse("--threads", value),
+                        "threads", 10);
+                fail(value);
+            } catch (ParseException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith(
+                        "--threads"));
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.TestCase;
+
+/**
+ * Claims, records and reloads images of a deduplication index.
+ */
+public class DedupIndexTest extends TestCase {
+
+    private File dir;
+
+    private File file;
+
+    private File output;
+
+    private ExecutorService executor;
+
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("dedup").toFile();
+        file = new File(dir, "dedup.index");
+        output = new File(dir, "out\tput.dcm");
+        try (FileOutputStream out = new FileOutputStream(output)) {
+            out.write(new byte[10]);
+        }
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    protected void tearDown() {
+        executor.shutdownNow();
+        BatchConverterTest.delete(dir);
+    }
+
+    public void testRecordAndReload() throws Exception {
+        try (DedupIndex index = new DedupIndex(file)) {
+            assertNull(index.claim("abcd"));
+            index.record("abcd", "1.2.3", output);
+            DedupIndex.Entry e = index.claim("abcd");
+            assertEquals("1.2.3", e.getSOPInstanceUID());
+            assertEquals(output.getAbsoluteFile(), e.getOutput());
+        }
+        try (DedupIndex index = new DedupIndex(file)) {
+            assertEquals(1, index.size());
+            DedupIndex.Entry e = index.claim("abcd");
+            assertEquals("abcd", e.getDigest());
+            assertEquals(output.getAbsoluteFile(), e.getOutput());
+            // Once the DICOM file is gone, the image is converted again.
+            output.delete();
+            assertNull(index.claim("abcd"));
+            index.release("abcd");
+        }
+    }
+
+    public void testWaitForRecord() throws Exception {
+        try (final DedupIndex index = new DedupIndex(file)) {
+            assertNull(index.claim("abcd"));
+            final CountDownLatch started = new CountDownLatch(1);
+            Future<DedupIndex.Entry> waiting = executor.submit(() -> {
+                started.countDown();
+                return index.claim("abcd");
+            });
+            started.await();
+            try {
+                waiting.get(100, TimeUnit.MILLISECONDS);
+                fail("claimed a digest being converted");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            index.record("abcd", "1.2.3", output);
+            assertEquals("1.2.3", waiting.get(10, TimeUnit.SECONDS)
+                    .getSOPInstanceUID());
+        }
+    }
+
+    public void testWaitForRelease() throws Exception {
+        try (final DedupIndex index = new DedupIndex(file)) {
+            assertNull(index.claim("abcd"));
+            Future<DedupIndex.Entry> waiting = executor.submit(() -> index
+                    .claim("abcd"));
+            Thread.sleep(50);
+            index.release("abcd");
+            // The conversion failed, so the waiting worker converts it.
+            assertNull(waiting.get(10, TimeUnit.SECONDS));
+            index.release("abcd");
+            assertEquals(0, index.size());
+        }
+    }
+}
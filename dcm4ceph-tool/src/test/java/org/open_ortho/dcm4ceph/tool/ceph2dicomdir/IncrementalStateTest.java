@@ -0,0 +1,99 @@
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * Records what DICOM files were written from and loads it again.
+ */
+public class IncrementalStateTest extends TestCase {
+
+    private File dir;
+
+    private File file;
+
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("incremental").toFile();
+        file = new File(dir, IncrementalState.DEFAULT_NAME);
+    }
+
+    protected void tearDown() {
+        BatchConverterTest.delete(dir);
+    }
+
+    private File create(String name, int length) throws IOException {
+        File f = new File(dir, name);
+        try (FileOutputStream out = new FileOutputStream(f)) {
+            out.write(new byte[length]);
+        }
+        return f;
+    }
+
+    public void testRecordAndReload() throws IOException {
+        File input = create("input.jpg", 10);
+        File properties = create("input.properties", 5);
+        File output = create("input.dcm", 20);
+        IncrementalState.Sources sources = IncrementalState.sources(input,
+                properties, null);
+        try (IncrementalState state = new IncrementalState(file)) {
+            assertFalse(state.isUpToDate(output, sources));
+            state.record(output, sources);
+            assertTrue(state.isUpToDate(output, sources));
+        }
+        try (IncrementalState state = new IncrementalState(file)) {
+            assertEquals(1, state.size());
+            assertTrue(state.isUpToDate(output, IncrementalState.sources(
+                    input, properties, null)));
+            // The output was replaced.
+            create("input.dcm", 21);
+            assertFalse(state.isUpToDate(output, sources));
+        }
+    }
+
+    public void testOlderSource() throws IOException {
+        File input = create("input.jpg", 10);
+        File properties = create("input.properties", 5);
+        File output = create("input.dcm", 20);
+        try (IncrementalState state = new IncrementalState(file)) {
+            state.record(output, IncrementalState.sources(input, properties,
+                    null));
+            // Restored from a backup: older, but not the same.
+            input.setLastModified(input.lastModified() - 60000);
+            assertFalse(state.isUpToDate(output, IncrementalState.sources(
+                    input, properties, null)));
+            // Same modification time, different size.
+            state.record(output, IncrementalState.sources(input, properties,
+                    null));
+            long modified = properties.lastModified();
+            create("input.properties", 6);
+            properties.setLastModified(modified);
+            assertFalse(state.isUpToDate(output, IncrementalState.sources(
+                    input, properties, null)));
+        }
+    }
+
+    public void testManifestRow() throws IOException {
+        File input = create("input.jpg", 10);
+        File output = create("input.dcm", 20);
+        Properties row = new Properties();
+        row.setProperty("patientID", "B1893");
+        row.setProperty("studyTime", "10:30");
+        try (IncrementalState state = new IncrementalState(file)) {
+            state.record(output, IncrementalState.sources(input, null, row));
+            Properties same = new Properties();
+            same.setProperty("studyTime", "10:30");
+            same.setProperty("patientID", "B1893");
+            assertTrue(state.isUpToDate(output, IncrementalState.sources(
+                    input, null, same)));
+            // The row was edited.
+            same.setProperty("studyTime", "11:30");
+            assertFalse(state.isUpToDate(output, IncrementalState.sources(
+                    input, null, same)));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+import org.open_ortho.dcm4ceph.core.ConversionException;
+
+/**
+ * Parses CSV and JSON Lines manifests.
+ */
+public class ManifestReaderTest extends TestCase {
+
+    private File dir;
+
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("manifest").toFile();
+    }
+
+    protected void tearDown() {
+        BatchConverterTest.delete(dir);
+    }
+
+    private ManifestReader open(String name, String content)
+            throws IOException {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return new ManifestReader(file);
+    }
+
+    public void testCsv() throws IOException {
+        try (ManifestReader reader = open("scans.csv",
+                "image,patientID,comment\r\n"
+                        + "a.jpg,B1893,plain\r\n"
+                        + "\"b,c.jpg\",\"B \"\"1894\"\"\",\"two\nlines\"\r\n")) {
+            ManifestReader.Row row = reader.next();
+            assertEquals(new File(dir, "a.jpg"), row.getImage());
+            assertEquals("B1893", row.getProperties().getProperty("patientID"));
+            assertEquals("plain", row.getProperties().getProperty("comment"));
+            assertNull(row.getProperties().getProperty("image"));
+
+            row = reader.next();
+            assertEquals(new File(dir, "b,c.jpg"), row.getImage());
+            assertEquals("B \"1894\"", row.getProperties().getProperty(
+                    "patientID"));
+            assertEquals("two\nlines", row.getProperties().getProperty(
+                    "comment"));
+            assertNull(reader.next());
+        }
+    }
+
+    public void testBomAndHeaderSpaces() throws IOException {
+        try (ManifestReader reader = open("scans.csv",
+                "\uFEFF image , patientID\na.jpg,B1893\n")) {
+            ManifestReader.Row row = reader.next();
+            assertEquals(new File(dir, "a.jpg"), row.getImage());
+            assertEquals("B1893", row.getProperties().getProperty("patientID"));
+        }
+    }
+
+    public void testEmptyValueIsAbsent() throws IOException {
+        try (ManifestReader reader = open("scans.csv",
+                "image,patientID,sid\na.jpg,,\"\"\n")) {
+            ManifestReader.Row row = reader.next();
+            assertFalse(row.getProperties().containsKey("patientID"));
+            assertFalse(row.getProperties().containsKey("sid"));
+        }
+    }
+
+    public void testBadCsvRow() throws IOException {
+        try (ManifestReader reader = open("scans.csv",
+                "image,patientID\na.jpg\n,B1893\nc.jpg,B1895\n")) {
+            try {
+                reader.next();
+                fail("expected ConversionException");
+            } catch (ConversionException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("line 2"));
+            }
+            try {
+                reader.next();
+                fail("expected ConversionException for a missing image");
+            } catch (ConversionException e) {
+                // expected
+            }
+            assertEquals(new File(dir, "c.jpg"), reader.next().getImage());
+        }
+    }
+
+    public void testNoImageColumn() throws IOException {
+        try {
+            open("scans.csv", "picture,patientID\n").close();
+            fail("expected ConversionException");
+        } catch (ConversionException e) {
+            // expected
+        }
+    }
+
+    public void testJsonLines() throws IOException {
+        File absolute = new File(dir, "scans/a.jpg").getAbsoluteFile();
+        String path = absolute.getPath().replace("\\", "\\\\");
+        try (ManifestReader reader = open("scans.jsonl",
+                "\uFEFF{\"image\": \"" + path + "\", \"patientID\": \"B\\\"18\\u0039\","
+                        + " \"sid\": 152.4, \"mirror\": true, \"sod\": null}\n"
+                        + "\n"
+                        + "{\"image\": \"b.jpg\"}\n")) {
+            ManifestReader.Row row = reader.next();
+            assertEquals(absolute, row.getImage());
+            assertEquals("B\"189", row.getProperties().getProperty(
+                    "patientID"));
+            assertEquals("152.4", row.getProperties().getProperty("sid"));
+            assertEquals("true", row.getProperties().getProperty("mirror"));
+            assertFalse(row.getProperties().containsKey("sod"));
+            assertEquals(new File(dir, "b.jpg"), reader.next().getImage());
+            assertNull(reader.next());
+        }
+    }
+
+    public void testMalformedJsonLines() throws IOException {
+        String[] bad = { "{\"image\": \"a.jpg\"", "[1, 2]",
+                "{\"image\": \"a.jpg\"} x", "{\"image\": {\"nested\": 1}}",
+                "{\"image\": \"a.jpg", "{\"image\": \"\\u12\"}" };
+        StringBuilder content = new StringBuilder();
+        for (String line : bad) {
+            content.append(line).append('\n');
+        }
+        content.append("{\"image\": \"ok.jpg\"}\n");
+        try (ManifestReader reader = open("scans.ndjson", content.toString())) {
+            for (int i = 0; i < bad.length; i++) {
+                try {
+                    reader.next();
+                    fail("expected ConversionException for " + bad[i]);
+                } catch (ConversionException e) {
+                    assertTrue(e.getMessage(), e.getMessage().contains(
+                            "line " + (i + 1)));
+                }
+            }
+            assertEquals(new File(dir, "ok.jpg"), reader.next().getImage());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.open_ortho.dcm4ceph.tool.ceph2dicomdir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+/**
+ * Conversion of the cephalograms dropped into a watched folder.
+ */
+public class WatchFolderTest extends TestCase {
+
+    private static final long TIMEOUT_MILLIS = 20000;
+
+    private File inbox;
+
+    private File output;
+
+    private File staging;
+
+    private WatchFolder watch;
+
+    private Thread thread;
+
+    private volatile Exception error;
+
+    protected void setUp() throws IOException {
+        inbox = Files.createTempDirectory("watch-in").toFile();
+        output = Files.createTempDirectory("watch-out").toFile();
+        staging = Files.createTempDirectory("watch-staging").toFile();
+        watch = new WatchFolder(inbox, output, 2);
+        thread = new Thread(() -> {
+            try {
+                watch.run();
+            } catch (Exception e) {
+                error = e;
+            }
+        });
+        thread.start();
+    }
+
+    protected void tearDown() throws Exception {
+        watch.stop();
+        thread.join(TIMEOUT_MILLIS);
+        assertFalse(thread.isAlive());
+        BatchConverterTest.delete(inbox);
+        BatchConverterTest.delete(output);
+        BatchConverterTest.delete(staging);
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static void waitFor(File file) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!file.exists()) {
+            assertTrue("timed out waiting for " + file,
+                    System.currentTimeMillis() < end);
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * Move a file into the inbox, as a copy that completes at once.
+     */
+    private void drop(File file) throws IOException {
+        Files.move(file.toPath(), new File(inbox, file.getName()).toPath());
+    }
+
+    public void testConvertAndMove() throws Exception {
+        for (File image : BatchConverterTest.copySamples(staging)) {
+            drop(image);
+            drop(new File(staging, image.getName().replace(".jpg",
+                    ".properties")));
+        }
+        File processed = new File(inbox, "processed");
+        waitFor(new File(processed, "B1893L12.properties"));
+        waitFor(new File(processed, "B1893F12.properties"));
+        assertTrue(new File(processed, "B1893L12.jpg").exists());
+        assertFalse(new File(inbox, "B1893L12.jpg").exists());
+        assertTrue(new File(output, "B1893L12.dcm").length() > 0);
+        assertTrue(new File(output, "B1893F12.dcm").length() > 0);
+        assertFalse(new File(output, "B1893L12.dcm.part").exists());
+    }
+
+    public void testImageWaitsForProperties() throws Exception {
+        BatchConverterTest.copySamples(staging);
+        drop(new File(staging, "B1893L12.jpg"));
+        Thread.sleep(4 * WatchFolder.STABLE_MILLIS);
+        assertFalse(new File(output, "B1893L12.dcm").exists());
+        drop(new File(staging, "B1893L12.properties"));
+        waitFor(new File(new File(inbox, "processed"), "B1893L12.jpg"));
+        assertTrue(new File(output, "B1893L12.dcm").exists());
+    }
+
+    public void testFailed() throws Exception {
+        File broken = new File(staging, "broken.jpg");
+        try (FileOutputStream out = new FileOutputStream(broken)) {
+            out.write("not a JPEG".getBytes("US-ASCII"));
+        }
+        BatchConverterTest.copySamples(staging);
+        File properties = new File(staging, "broken.properties");
+        Files.copy(new File(staging, "B1893L12.properties").toPath(),
+                properties.toPath());
+        drop(broken);
+        drop(properties);
+        waitFor(new File(new File(inbox, "failed"), "broken.properties"));
+        assertTrue(new File(new File(inbox, "failed"), "broken.jpg").exists());
+        assertFalse(new File(output, "broken.dcm").exists());
+        assertFalse(new File(output, "broken.dcm.part").exists());
+    }
+}